@@ -0,0 +1,76 @@
+package de.tum.flexsmc.smc.benchmarks;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tum.flexsmc.smc.rpc.Aggregator;
+import de.tum.flexsmc.smc.rpc.SMCResult;
+import de.tum.flexsmc.smc.rpc.SMCTask;
+
+/**
+ * Compares many independent aggregations as separate jobs with a single
+ * batch job evaluating all of them in the same session and rounds.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BatchBenchmark {
+
+	@Param({ "3" })
+	public int parties;
+
+	@Param({ "1", "8", "32" })
+	public int tasks;
+
+	@Param({ "SUM", "STD_DEVIATION" })
+	public Aggregator aggregator;
+
+	private LocalParties local;
+	private SMCTask task;
+	private List<SMCTask> batch;
+
+	@Setup
+	public void setup() throws Exception {
+		local = new LocalParties(parties);
+		task = LocalParties.task(aggregator);
+		batch = Collections.nCopies(tasks - 1, task);
+	}
+
+	@TearDown
+	public void tearDown() {
+		local.shutdown();
+	}
+
+	@Benchmark
+	public SMCResult separate() throws Exception {
+		SMCResult res = null;
+		for (int i = 0; i < tasks; i++) {
+			res = local.runJob(task, LocalParties.Mode.FUSED);
+		}
+		return res;
+	}
+
+	@Benchmark
+	public SMCResult batched() throws Exception {
+		return local.runJob(task, batch, LocalParties.Mode.FUSED);
+	}
+
+}
@@ -0,0 +1,41 @@
+package de.tum.flexsmc.smc.benchmarks;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the connector benchmarks and stores the results as JSON for comparison
+ * with previous runs.
+ *
+ * Usage: java -jar benchmarks.jar [result.json] [include regexp...]
+ *
+ */
+public final class BenchmarkRunner {
+	public static final String DEFAULT_RESULT_FILE = "jmh-result.json";
+
+	private BenchmarkRunner() {
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		String resultFile = (args.length > 0) ? args[0] : DEFAULT_RESULT_FILE;
+
+		ChainedOptionsBuilder opt = new OptionsBuilder()
+				.resultFormat(ResultFormatType.JSON)
+				.result(resultFile)
+				.shouldFailOnError(true);
+		if (args.length > 1) {
+			for (int i = 1; i < args.length; i++) {
+				opt.include(args[i]);
+			}
+		} else {
+			opt.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+		}
+
+		new Runner(opt.build()).run();
+		System.out.println("Results written to " + resultFile);
+	}
+
+}
@@ -0,0 +1,43 @@
+package de.tum.flexsmc.smc.benchmarks;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+import de.tum.flexsmc.smc.input.InputProvider;
+import de.tum.flexsmc.smc.input.InputRegistry;
+import de.tum.flexsmc.smc.input.ValueEncoder;
+import de.tum.flexsmc.smc.rpc.DataOrigin;
+
+/**
+ * ConstantInputProvider delivers the same reading over and over, so
+ * benchmarks do not depend on real data sources.
+ *
+ */
+public class ConstantInputProvider implements InputProvider {
+	private final double value;
+
+	public ConstantInputProvider(double value) {
+		this.value = value;
+	}
+
+	/**
+	 * Registers a constant source for all data origins.
+	 */
+	public static void registerAll(InputRegistry inputs, double value) {
+		for (DataOrigin origin : DataOrigin.values()) {
+			if (origin != DataOrigin.UNRECOGNIZED) {
+				inputs.register(origin, new ConstantInputProvider(value));
+			}
+		}
+	}
+
+	@Override
+	public void read(BigInteger[] dst, ValueEncoder enc) {
+		Arrays.fill(dst, enc.encode(value));
+	}
+
+	@Override
+	public void close() {
+	}
+
+}
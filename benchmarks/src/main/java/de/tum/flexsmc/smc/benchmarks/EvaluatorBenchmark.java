@@ -0,0 +1,68 @@
+package de.tum.flexsmc.smc.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tum.flexsmc.smc.engine.BgwEngine;
+import de.tum.flexsmc.smc.rpc.Aggregator;
+import de.tum.flexsmc.smc.rpc.SMCResult;
+import de.tum.flexsmc.smc.rpc.SMCTask;
+
+/**
+ * Compares the FRESCO evaluation strategies selectable by the "evaluator"
+ * task option for vector SUM and the multiplication heavy MEDIAN.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EvaluatorBenchmark {
+
+	@Param({ "3", "8" })
+	public int parties;
+
+	@Param({ "sequential", "parallel", "sequential_batched", "parallel_batched" })
+	public String evaluator;
+
+	@Param({ "SUM", "MEDIAN" })
+	public Aggregator aggregator;
+
+	@Param({ "64" })
+	public int vectorLen;
+
+	private LocalParties local;
+	private SMCTask task;
+
+	@Setup
+	public void setup() throws Exception {
+		local = new LocalParties(parties);
+		task = LocalParties.task(LocalParties.task(aggregator, BgwEngine.OPT_EVALUATOR, evaluator),
+				BgwEngine.OPT_VECTOR_LEN, vectorLen);
+	}
+
+	@TearDown
+	public void tearDown() {
+		local.shutdown();
+	}
+
+	@Benchmark
+	public SMCResult job() throws Exception {
+		return local.runJob(task, LocalParties.Mode.FUSED);
+	}
+
+}
@@ -0,0 +1,84 @@
+package de.tum.flexsmc.smc.benchmarks;
+
+import java.math.BigInteger;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tum.flexsmc.smc.aggregator.Median;
+import de.tum.flexsmc.smc.config.BgwSuite;
+
+/**
+ * Local field arithmetic: multiply-accumulate over a vector and the MEDIAN
+ * threshold polynomial, mod 2^61 - 1 and 2^89 - 1.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FieldArithmeticBenchmark {
+
+	@Param({ "1024" })
+	public int vectorLen;
+
+	@Param({ "9" })
+	public int parties;
+
+	private BigInteger[] a;
+	private BigInteger[] b;
+
+	@Setup
+	public void setup() {
+		Random rnd = new Random(42);
+		a = new BigInteger[vectorLen];
+		b = new BigInteger[vectorLen];
+		for (int i = 0; i < vectorLen; i++) {
+			// Reduced in both fields
+			a[i] = new BigInteger(60, rnd);
+			b[i] = new BigInteger(60, rnd);
+		}
+	}
+
+	@Benchmark
+	public BigInteger mulAdd61BigInteger() {
+		return mulAdd(BgwSuite.MERSENNE_61);
+	}
+
+	@Benchmark
+	public BigInteger mulAdd89BigInteger() {
+		return mulAdd(BgwSuite.DEFAULT_MODULUS);
+	}
+
+	private BigInteger mulAdd(BigInteger modulus) {
+		BigInteger acc = BigInteger.ZERO;
+		for (int i = 0; i < vectorLen; i++) {
+			acc = acc.add(a[i].multiply(b[i])).mod(modulus);
+		}
+		return acc;
+	}
+
+	@Benchmark
+	public BigInteger[] threshold61BigInteger() {
+		return Median.thresholdPolynomial(parties, (parties + 1) / 2, BgwSuite.MERSENNE_61);
+	}
+
+	@Benchmark
+	public BigInteger[] threshold89BigInteger() {
+		return Median.thresholdPolynomial(parties, (parties + 1) / 2, BgwSuite.DEFAULT_MODULUS);
+	}
+
+}
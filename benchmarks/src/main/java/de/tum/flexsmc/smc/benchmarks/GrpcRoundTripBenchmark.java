@@ -0,0 +1,123 @@
+package de.tum.flexsmc.smc.benchmarks;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tum.flexsmc.smc.rpc.CmdResult;
+import de.tum.flexsmc.smc.rpc.DebugPhase;
+import de.tum.flexsmc.smc.rpc.RPCServer;
+import de.tum.flexsmc.smc.rpc.SMCCmd;
+import de.tum.flexsmc.smc.rpc.SMCGrpc;
+import de.tum.flexsmc.smc.rpc.SessionCtx;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.netty.NettyChannelBuilder;
+import io.grpc.stub.MetadataUtils;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.EpollDomainSocketChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.unix.DomainSocketAddress;
+
+/**
+ * Round trip overhead of the RPC interface between GW and connector, both
+ * via TCP loopback and UNIX domain sockets.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GrpcRoundTripBenchmark {
+	private static final String TCP_SOCKET = "localhost:13199";
+	private static final String UNIX_SOCKET = "/tmp/flexsmc-bench.sock";
+	private static final Metadata.Key<String> SESSION_KEY = Metadata.Key.of("session-id",
+			Metadata.ASCII_STRING_MARSHALLER);
+
+	@Param({ "tcp", "unix" })
+	public String transport;
+
+	private RPCServer server;
+	private ManagedChannel channel;
+	private EventLoopGroup clientGroup;
+	private SMCGrpc.SMCBlockingStub stub;
+	private SMCGrpc.SMCBlockingStub sessionStub;
+	private SMCCmd ping;
+	private SMCCmd lastPing;
+	private final AtomicLong sessionIDs = new AtomicLong();
+
+	@Setup
+	public void setup() throws Exception {
+		server = new RPCServer();
+		if ("unix".equals(transport)) {
+			new File(UNIX_SOCKET).delete();
+			server.setCustomSocket("unix://" + UNIX_SOCKET);
+			clientGroup = new EpollEventLoopGroup(1);
+			channel = NettyChannelBuilder.forAddress(new DomainSocketAddress(UNIX_SOCKET))
+					.eventLoopGroup(clientGroup).channelType(EpollDomainSocketChannel.class)
+					.usePlaintext(true).build();
+		} else {
+			server.setCustomSocket(TCP_SOCKET);
+			channel = NettyChannelBuilder.forTarget(TCP_SOCKET).usePlaintext(true).build();
+		}
+		server.start();
+
+		stub = SMCGrpc.newBlockingStub(channel);
+		stub.init(SessionCtx.newBuilder().setSessionID("bench-open").build());
+		sessionStub = withSession("bench-open");
+
+		ping = SMCCmd.newBuilder().setDebug(DebugPhase.newBuilder().setPing(1).setMorePhases(true)).build();
+		lastPing = SMCCmd.newBuilder().setDebug(DebugPhase.newBuilder().setPing(1)).build();
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+		if (clientGroup != null) {
+			clientGroup.shutdownGracefully();
+		}
+		server.stop();
+	}
+
+	/**
+	 * Single NextCmd on an open session.
+	 */
+	@Benchmark
+	public CmdResult nextCmd() {
+		return sessionStub.nextCmd(ping);
+	}
+
+	/**
+	 * Init, a single NextCmd and TearDown of a new session.
+	 */
+	@Benchmark
+	public CmdResult sessionLifecycle() {
+		String id = "bench-" + sessionIDs.incrementAndGet();
+		SessionCtx ctx = SessionCtx.newBuilder().setSessionID(id).build();
+		stub.init(ctx);
+		withSession(id).nextCmd(lastPing);
+		return stub.tearDown(ctx);
+	}
+
+	private SMCGrpc.SMCBlockingStub withSession(String sessionID) {
+		Metadata header = new Metadata();
+		header.put(SESSION_KEY, sessionID);
+		return MetadataUtils.attachHeaders(stub, header);
+	}
+
+}
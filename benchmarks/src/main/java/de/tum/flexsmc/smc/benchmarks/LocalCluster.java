@@ -0,0 +1,278 @@
+package de.tum.flexsmc.smc.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import de.tum.flexsmc.smc.rpc.Aggregator;
+import de.tum.flexsmc.smc.rpc.CmdResult;
+import de.tum.flexsmc.smc.rpc.LinkingPhase;
+import de.tum.flexsmc.smc.rpc.PreparePhase;
+import de.tum.flexsmc.smc.rpc.RPCServer;
+import de.tum.flexsmc.smc.rpc.SMCCmd;
+import de.tum.flexsmc.smc.rpc.SMCGrpc;
+import de.tum.flexsmc.smc.rpc.SMCTask;
+import de.tum.flexsmc.smc.rpc.SessionCtx;
+import de.tum.flexsmc.smc.rpc.SessionPhase;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.stub.MetadataUtils;
+
+/**
+ * LocalCluster starts n connectors in this JVM and acts as their GW. Commands
+ * are sent via in-process gRPC channels, whereas the SMC peers talk to each
+ * other via TCP loopback as usual. Jobs are driven through Init, NextCmd and
+ * TearDown like the real GW does, so the whole connector stack is loaded.
+ *
+ * Usage: LocalCluster [parties] [jobs] [concurrency] [aggregator]
+ *
+ */
+public class LocalCluster {
+	private static final Logger l = Logger.getLogger(LocalCluster.class.getName());
+
+	public static final int BASE_PORT = 23000;
+	private static final Metadata.Key<String> SESSION_KEY = Metadata.Key.of("session-id",
+			Metadata.ASCII_STRING_MARSHALLER);
+
+	private final int numParties;
+	private final RPCServer[] servers;
+	private final ManagedChannel[] channels;
+	private final SMCGrpc.SMCFutureStub[] stubs;
+	// Blocks of SMC ports. A block is used by one job at a time.
+	private final BlockingQueue<Integer> portBlocks;
+	private final AtomicLong sessionIDs = new AtomicLong();
+
+	/**
+	 * Summary of a load run.
+	 */
+	public static class Report {
+		public final int jobs;
+		public final int failed;
+		public final long durationNanos;
+		// Sorted latencies of successful jobs
+		private final long[] latencies;
+
+		Report(int jobs, int failed, long durationNanos, long[] latencies) {
+			this.jobs = jobs;
+			this.failed = failed;
+			this.durationNanos = durationNanos;
+			this.latencies = latencies;
+			Arrays.sort(this.latencies);
+		}
+
+		/**
+		 * @return successful jobs per second
+		 */
+		public double getThroughput() {
+			return latencies.length / (durationNanos / 1e9);
+		}
+
+		/**
+		 * @return latency of the given percentile in milliseconds
+		 */
+		public double percentile(double p) {
+			if (latencies.length == 0) {
+				return Double.NaN;
+			}
+			int idx = (int) Math.ceil(p / 100.0 * latencies.length) - 1;
+			return latencies[Math.max(0, Math.min(idx, latencies.length - 1))] / 1e6;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("jobs=%d failed=%d duration=%.1fs throughput=%.2f jobs/s p50=%.2fms p90=%.2fms p99=%.2fms",
+					jobs, failed, durationNanos / 1e9, getThroughput(), percentile(50), percentile(90),
+					percentile(99));
+		}
+	}
+
+	/**
+	 * @param maxConcurrentJobs
+	 *            upper bound of jobs run at the same time. Determines the SMC
+	 *            ports in use.
+	 */
+	public LocalCluster(int numParties, int maxConcurrentJobs) throws Exception {
+		if (numParties < 2) {
+			throw new IllegalArgumentException("Not enough parties: " + numParties);
+		}
+		this.numParties = numParties;
+		this.servers = new RPCServer[numParties];
+		this.channels = new ManagedChannel[numParties];
+		this.stubs = new SMCGrpc.SMCFutureStub[numParties];
+		for (int i = 0; i < numParties; i++) {
+			String name = "flexsmc-local-" + (i + 1);
+			servers[i] = new RPCServer();
+			ConstantInputProvider.registerAll(servers[i].getSharedResources().getInputs(), 2 * (i + 1));
+			servers[i].startInProcess(name);
+			channels[i] = InProcessChannelBuilder.forName(name).build();
+			stubs[i] = SMCGrpc.newFutureStub(channels[i]);
+		}
+		// Twice the blocks needed to give closed ports some time to linger.
+		int blocks = 2 * maxConcurrentJobs;
+		this.portBlocks = new ArrayBlockingQueue<>(blocks);
+		for (int b = 0; b < blocks; b++) {
+			portBlocks.add(b);
+		}
+	}
+
+	/**
+	 * Runs a single job on all connectors and waits for its completion.
+	 *
+	 * @throws IllegalStateException
+	 *             if any connector did not succeed
+	 */
+	public void runJob(SMCTask task) throws Exception {
+		String sessionID = "local-" + sessionIDs.incrementAndGet();
+		int block = portBlocks.take();
+		try {
+			PreparePhase.Builder prep = PreparePhase.newBuilder().setSmcTask(task);
+			for (int i = 1; i <= numParties; i++) {
+				prep.addParticipants(PreparePhase.Participant.newBuilder().setAuthID("peer" + i).setSmcPeerID(i)
+						.setEndpoint("localhost:" + (BASE_PORT + block * numParties + i)));
+			}
+			runJob(sessionID, prep.build());
+
+		} finally {
+			portBlocks.put(block);
+		}
+	}
+
+	private void runJob(String sessionID, PreparePhase prepare) throws Exception {
+		SessionCtx ctx = SessionCtx.newBuilder().setSessionID(sessionID).build();
+		SMCGrpc.SMCFutureStub[] session = new SMCGrpc.SMCFutureStub[numParties];
+		Metadata header = new Metadata();
+		header.put(SESSION_KEY, sessionID);
+		for (int i = 0; i < numParties; i++) {
+			session[i] = MetadataUtils.attachHeaders(stubs[i], header);
+		}
+
+		try {
+			List<Future<CmdResult>> replies = new ArrayList<>(numParties);
+			for (int i = 0; i < numParties; i++) {
+				replies.add(stubs[i].init(ctx));
+			}
+			await("init", replies, CmdResult.Status.SUCCESS);
+
+			// Each phase acts as barrier among all peers like with the GW.
+			replies.clear();
+			for (int i = 0; i < numParties; i++) {
+				replies.add(session[i].nextCmd(SMCCmd.newBuilder().setSessionID(sessionID).setSmcPeerID(i + 1)
+						.setState(SMCCmd.Phase.PREPARE).setPrepare(prepare).build()));
+			}
+			await("prepare", replies, CmdResult.Status.SUCCESS);
+
+			replies.clear();
+			for (int i = 0; i < numParties; i++) {
+				replies.add(session[i].nextCmd(SMCCmd.newBuilder().setSessionID(sessionID).setSmcPeerID(i + 1)
+						.setState(SMCCmd.Phase.LINK).setLink(LinkingPhase.getDefaultInstance()).build()));
+			}
+			await("link", replies, CmdResult.Status.SUCCESS);
+
+			replies.clear();
+			for (int i = 0; i < numParties; i++) {
+				replies.add(session[i].nextCmd(SMCCmd.newBuilder().setSessionID(sessionID).setSmcPeerID(i + 1)
+						.setState(SMCCmd.Phase.SESSION).setSession(SessionPhase.getDefaultInstance()).build()));
+			}
+			await("session", replies, CmdResult.Status.SUCCESS_DONE);
+
+		} finally {
+			List<Future<CmdResult>> replies = new ArrayList<>(numParties);
+			for (int i = 0; i < numParties; i++) {
+				replies.add(stubs[i].tearDown(ctx));
+			}
+			for (Future<CmdResult> f : replies) {
+				f.get();
+			}
+		}
+	}
+
+	private static void await(String phase, List<Future<CmdResult>> replies, CmdResult.Status expected)
+			throws Exception {
+		CmdResult failed = null;
+		for (Future<CmdResult> f : replies) {
+			CmdResult res = f.get();
+			if (res.getStatus() != expected && failed == null) {
+				failed = res;
+			}
+		}
+		if (failed != null) {
+			throw new IllegalStateException(phase + " failed: " + failed.getStatus() + " " + failed.getMsg());
+		}
+	}
+
+	/**
+	 * Runs the given number of jobs with a fixed number of jobs in flight.
+	 */
+	public Report load(final SMCTask task, final int jobs, int concurrency) throws InterruptedException {
+		final long[] latencies = new long[jobs];
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicInteger succeeded = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+
+		ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+		long start = System.nanoTime();
+		for (int w = 0; w < concurrency; w++) {
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					while (next.getAndIncrement() < jobs) {
+						long t = System.nanoTime();
+						try {
+							runJob(task);
+							latencies[succeeded.getAndIncrement()] = System.nanoTime() - t;
+						} catch (Exception e) {
+							failed.incrementAndGet();
+							l.warning("Job failed: " + e.getMessage());
+						}
+					}
+				}
+			});
+		}
+		workers.shutdown();
+		workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+		long duration = System.nanoTime() - start;
+
+		return new Report(jobs, failed.get(), duration, Arrays.copyOf(latencies, succeeded.get()));
+	}
+
+	public void shutdown() {
+		for (int i = 0; i < numParties; i++) {
+			channels[i].shutdownNow();
+			servers[i].stop();
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		int parties = (args.length > 0) ? Integer.parseInt(args[0]) : 3;
+		int jobs = (args.length > 1) ? Integer.parseInt(args[1]) : 1000;
+		int concurrency = (args.length > 2) ? Integer.parseInt(args[2]) : 4;
+		Aggregator aggregator = (args.length > 3) ? Aggregator.valueOf(args[3].toUpperCase()) : Aggregator.SUM;
+		// Per session logging of the connectors would dominate the run.
+		Logger.getLogger("de.tum.flexsmc.smc").setLevel(Level.WARNING);
+
+		LocalCluster cluster = new LocalCluster(parties, concurrency);
+		try {
+			SMCTask task = LocalParties.task(aggregator);
+			// Warm up JIT and pools
+			cluster.load(task, Math.min(jobs, 50), concurrency);
+
+			Report report = cluster.load(task, jobs, concurrency);
+			System.out.println("parties=" + parties + " concurrency=" + concurrency + " aggregator=" + aggregator
+					+ " " + report);
+		} finally {
+			cluster.shutdown();
+		}
+	}
+
+}
@@ -0,0 +1,240 @@
+package de.tum.flexsmc.smc.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import de.tum.flexsmc.smc.engine.BgwEngine;
+import de.tum.flexsmc.smc.engine.SharedResources;
+import de.tum.flexsmc.smc.input.InputRegistry;
+import de.tum.flexsmc.smc.rpc.Aggregator;
+import de.tum.flexsmc.smc.rpc.CmdResult;
+import de.tum.flexsmc.smc.rpc.FusedPhase;
+import de.tum.flexsmc.smc.rpc.LinkingPhase;
+import de.tum.flexsmc.smc.rpc.Option;
+import de.tum.flexsmc.smc.rpc.PreparePhase;
+import de.tum.flexsmc.smc.rpc.SMCCmd;
+import de.tum.flexsmc.smc.rpc.SMCResult;
+import de.tum.flexsmc.smc.rpc.SMCTask;
+import de.tum.flexsmc.smc.rpc.SessionPhase;
+
+/**
+ * LocalParties runs complete jobs among n BGW engines in this process. The
+ * engines talk to each other via TCP loopback. Each party runs on its own
+ * thread, similar to separate connectors driven by the GW.
+ *
+ */
+public class LocalParties {
+	public static final int BASE_PORT = 21000;
+	// Ports are rotated to not wait for lingering sockets of previous runs.
+	private static final int PORT_WINDOWS = 32;
+	private static final int MAX_PARTIES = 32;
+
+	/**
+	 * Mode to run the job phases in.
+	 */
+	public enum Mode {
+		/** PREPARE, LINK and SESSION with a barrier among all peers in between */
+		PHASED,
+		/** single fused command per peer */
+		FUSED
+	}
+
+	private final int numParties;
+	// Resources of party i at index i - 1, each with its own inputs
+	private final SharedResources[] shared;
+	private final ExecutorService threads;
+	private final AtomicInteger run = new AtomicInteger();
+
+	public LocalParties(int numParties) {
+		if (numParties < 2 || numParties > MAX_PARTIES) {
+			throw new IllegalArgumentException("Unsupported number of parties: " + numParties);
+		}
+		this.numParties = numParties;
+		this.shared = new SharedResources[numParties];
+		for (int i = 0; i < numParties; i++) {
+			InputRegistry inputs = new InputRegistry();
+			ConstantInputProvider.registerAll(inputs, 2 * (i + 1));
+			shared[i] = new SharedResources(null, inputs, null, null, null);
+		}
+		this.threads = Executors.newFixedThreadPool(numParties);
+	}
+
+	/**
+	 * Creates a task with the given string options, e.g. "evaluator",
+	 * "parallel".
+	 */
+	public static SMCTask task(Aggregator aggregator, String... options) {
+		SMCTask.Builder t = SMCTask.newBuilder().setSet("benchmark").setAggregator(aggregator);
+		for (int i = 0; i + 1 < options.length; i += 2) {
+			t.putOptions(options[i], Option.newBuilder().setStr(options[i + 1]).build());
+		}
+		return t.build();
+	}
+
+	/**
+	 * Creates a task with the given numeric options, e.g. "vector_len", 64.
+	 */
+	public static SMCTask task(SMCTask base, String key, int value) {
+		return base.toBuilder().putOptions(key, Option.newBuilder().setDec(value).build()).build();
+	}
+
+	/**
+	 * Runs a job on all parties.
+	 *
+	 * @return the result of the first party
+	 */
+	public SMCResult runJob(final SMCTask task, final Mode mode) throws Exception {
+		return runJob(task, Collections.<SMCTask> emptyList(), mode);
+	}
+
+	/**
+	 * Runs a batch job of the main task and further tasks on all parties.
+	 *
+	 * @return the result of the first party
+	 */
+	public SMCResult runJob(final SMCTask task, List<SMCTask> batchTasks, final Mode mode) throws Exception {
+		final PreparePhase prepare = newPrepare(task).addAllBatchTasks(batchTasks).build();
+		final CyclicBarrier barrier = new CyclicBarrier(numParties);
+
+		List<Future<SMCResult>> results = new ArrayList<>(numParties);
+		for (int i = 1; i <= numParties; i++) {
+			final int myId = i;
+			results.add(threads.submit(new Callable<SMCResult>() {
+				@Override
+				public SMCResult call() throws Exception {
+					BgwEngine eng = new BgwEngine(shared[myId - 1]);
+					try {
+						if (mode == Mode.FUSED) {
+							return expectDone(eng.runNextPhase(cmd(myId).setState(SMCCmd.Phase.FUSED)
+									.setFused(FusedPhase.newBuilder().setPrepare(prepare)).build()));
+						}
+						expect(eng.runNextPhase(cmd(myId).setState(SMCCmd.Phase.PREPARE).setPrepare(prepare).build()));
+						barrier.await();
+						expect(eng.runNextPhase(
+								cmd(myId).setState(SMCCmd.Phase.LINK).setLink(LinkingPhase.getDefaultInstance()).build()));
+						barrier.await();
+						return expectDone(eng.runNextPhase(cmd(myId).setState(SMCCmd.Phase.SESSION)
+								.setSession(SessionPhase.getDefaultInstance()).build()));
+					} catch (Exception e) {
+						// Release the others waiting for this party.
+						barrier.reset();
+						throw e;
+					} finally {
+						eng.stopAndInvalidate();
+					}
+				}
+			}));
+		}
+
+		return firstResult(results);
+	}
+
+	/**
+	 * Runs a streaming job on all parties. Each party contributes the given
+	 * number of times to a single window which is closed by the last one.
+	 *
+	 * @return the window aggregate of the first party
+	 */
+	public SMCResult runStream(SMCTask task, final int contributions) throws Exception {
+		final SMCTask streamTask = task(task, BgwEngine.OPT_STREAM, 1);
+		final PreparePhase prepare = newPrepare(streamTask).build();
+		final CyclicBarrier barrier = new CyclicBarrier(numParties);
+
+		List<Future<SMCResult>> results = new ArrayList<>(numParties);
+		for (int i = 1; i <= numParties; i++) {
+			final int myId = i;
+			results.add(threads.submit(new Callable<SMCResult>() {
+				@Override
+				public SMCResult call() throws Exception {
+					BgwEngine eng = new BgwEngine(shared[myId - 1]);
+					try {
+						expect(eng.runNextPhase(cmd(myId).setState(SMCCmd.Phase.PREPARE).setPrepare(prepare).build()));
+						barrier.await();
+						expect(eng.runNextPhase(
+								cmd(myId).setState(SMCCmd.Phase.LINK).setLink(LinkingPhase.getDefaultInstance()).build()));
+						for (int c = 1; c < contributions; c++) {
+							expect(eng.runNextPhase(cmd(myId).setState(SMCCmd.Phase.SESSION)
+									.setSession(SessionPhase.getDefaultInstance()).build()));
+						}
+						return expectDone(eng.runNextPhase(cmd(myId).setState(SMCCmd.Phase.SESSION)
+								.setSession(SessionPhase.newBuilder().setLast(true)).build()));
+					} catch (Exception e) {
+						barrier.reset();
+						throw e;
+					} finally {
+						eng.stopAndInvalidate();
+					}
+				}
+			}));
+		}
+		return firstResult(results);
+	}
+
+	/**
+	 * @return preparation of all parties on the next port window
+	 */
+	private PreparePhase.Builder newPrepare(SMCTask task) {
+		int window = run.getAndIncrement() % PORT_WINDOWS;
+		PreparePhase.Builder prep = PreparePhase.newBuilder().setSmcTask(task);
+		for (int i = 1; i <= numParties; i++) {
+			prep.addParticipants(PreparePhase.Participant.newBuilder().setAuthID("peer" + i).setSmcPeerID(i)
+					.setEndpoint("localhost:" + (BASE_PORT + window * MAX_PARTIES + i)));
+		}
+		return prep;
+	}
+
+	private static SMCResult firstResult(List<Future<SMCResult>> results) throws Exception {
+		SMCResult first = null;
+		Exception failure = null;
+		for (Future<SMCResult> f : results) {
+			try {
+				SMCResult r = f.get();
+				if (first == null) {
+					first = r;
+				}
+			} catch (ExecutionException e) {
+				if (failure == null) {
+					failure = (e.getCause() instanceof Exception) ? (Exception) e.getCause() : e;
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+		return first;
+	}
+
+	public int getNumParties() {
+		return numParties;
+	}
+
+	public void shutdown() {
+		threads.shutdownNow();
+	}
+
+	private static SMCCmd.Builder cmd(int myId) {
+		return SMCCmd.newBuilder().setSessionID("bench").setSmcPeerID(myId);
+	}
+
+	private static void expect(CmdResult res) {
+		if (res.getStatus() != CmdResult.Status.SUCCESS) {
+			throw new IllegalStateException("Phase failed: " + res.getStatus() + " " + res.getMsg());
+		}
+	}
+
+	private static SMCResult expectDone(CmdResult res) {
+		if (res.getStatus() != CmdResult.Status.SUCCESS_DONE) {
+			throw new IllegalStateException("Session failed: " + res.getStatus() + " " + res.getMsg());
+		}
+		return res.getResult();
+	}
+
+}
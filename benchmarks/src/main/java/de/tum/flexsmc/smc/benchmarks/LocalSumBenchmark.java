@@ -0,0 +1,67 @@
+package de.tum.flexsmc.smc.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tum.flexsmc.smc.rpc.Aggregator;
+import de.tum.flexsmc.smc.rpc.SMCResult;
+import de.tum.flexsmc.smc.rpc.SMCTask;
+
+/**
+ * Latency of a complete SUM job among n local parties, including SCE
+ * creation, peer linking and the BGW session. Compares the phased flow with
+ * barriers in between to the fused command.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LocalSumBenchmark {
+
+	@Param({ "2", "4", "8", "16" })
+	public int parties;
+
+	@Param({ "PHASED", "FUSED" })
+	public LocalParties.Mode mode;
+
+	private LocalParties local;
+	private SMCTask task;
+
+	@Setup
+	public void setup() throws Exception {
+		local = new LocalParties(parties);
+		task = LocalParties.task(Aggregator.SUM);
+		// Test inputs are 2 * peer ID.
+		double expected = parties * (parties + 1);
+		SMCResult res = local.runJob(task, mode);
+		if (res.getRes() != expected) {
+			throw new IllegalStateException("Wrong sum " + res.getRes() + ", expected " + expected);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		local.shutdown();
+	}
+
+	@Benchmark
+	public SMCResult sum() throws Exception {
+		return local.runJob(task, mode);
+	}
+
+}
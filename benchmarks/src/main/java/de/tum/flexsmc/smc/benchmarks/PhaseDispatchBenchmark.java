@@ -0,0 +1,121 @@
+package de.tum.flexsmc.smc.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import de.tum.flexsmc.smc.engine.EngineControl;
+import de.tum.flexsmc.smc.rpc.Aggregator;
+import de.tum.flexsmc.smc.rpc.CmdResult;
+import de.tum.flexsmc.smc.rpc.DebugPhase;
+import de.tum.flexsmc.smc.rpc.FusedPhase;
+import de.tum.flexsmc.smc.rpc.LinkingPhase;
+import de.tum.flexsmc.smc.rpc.PreparePhase;
+import de.tum.flexsmc.smc.rpc.SMCCmd;
+import de.tum.flexsmc.smc.rpc.SMCResult;
+import de.tum.flexsmc.smc.rpc.SessionPhase;
+
+/**
+ * Overhead of the phase state machine in {@link EngineControl} without any
+ * SMC work.
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PhaseDispatchBenchmark {
+
+	/**
+	 * Engine doing nothing in all phases.
+	 */
+	static class NoopEngine extends EngineControl {
+		private final SMCResult result = SMCResult.newBuilder().setRes(1).build();
+
+		@Override
+		public void prepare(int myId, List<PreparePhase.Participant> participants) {
+		}
+
+		@Override
+		public void linkPeers(LinkingPhase p) {
+		}
+
+		@Override
+		public SMCResult runSession() {
+			return result;
+		}
+
+		@Override
+		public SMCResult runWindow(SessionPhase p) {
+			return result;
+		}
+
+		@Override
+		public void stopAndInvalidate() {
+		}
+
+		@Override
+		public void abort() {
+		}
+
+		void reset() {
+			resetJob();
+		}
+	}
+
+	private NoopEngine eng;
+	private SMCCmd debug;
+	private SMCCmd prepare;
+	private SMCCmd link;
+	private SMCCmd session;
+	private SMCCmd fused;
+
+	@Setup
+	public void setup() {
+		eng = new NoopEngine();
+		PreparePhase.Builder prep = PreparePhase.newBuilder().setSmcTask(LocalParties.task(Aggregator.SUM));
+		for (int i = 1; i <= 3; i++) {
+			prep.addParticipants(PreparePhase.Participant.newBuilder().setSmcPeerID(i).setEndpoint("localhost:" + i));
+		}
+		debug = SMCCmd.newBuilder().setSmcPeerID(1)
+				.setDebug(DebugPhase.newBuilder().setPing(1).setMorePhases(true)).build();
+		prepare = SMCCmd.newBuilder().setSmcPeerID(1).setPrepare(prep).build();
+		link = SMCCmd.newBuilder().setSmcPeerID(1).setLink(LinkingPhase.getDefaultInstance()).build();
+		session = SMCCmd.newBuilder().setSmcPeerID(1).setSession(SessionPhase.getDefaultInstance()).build();
+		fused = SMCCmd.newBuilder().setSmcPeerID(1).setFused(FusedPhase.newBuilder().setPrepare(prep)).build();
+	}
+
+	@Benchmark
+	public CmdResult debugPing() throws Exception {
+		return eng.runNextPhase(debug);
+	}
+
+	@Benchmark
+	public void phasedJob(Blackhole bh) throws Exception {
+		bh.consume(eng.runNextPhase(prepare));
+		bh.consume(eng.runNextPhase(link));
+		bh.consume(eng.runNextPhase(session));
+		eng.reset();
+	}
+
+	@Benchmark
+	public CmdResult fusedJob() throws Exception {
+		CmdResult res = eng.runNextPhase(fused);
+		eng.reset();
+		return res;
+	}
+
+}
@@ -0,0 +1,202 @@
+package de.tum.flexsmc.smc.benchmarks;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tum.flexsmc.smc.aggregator.AggregatorApplication;
+import de.tum.flexsmc.smc.aggregator.Median;
+import de.tum.flexsmc.smc.aggregator.StdDeviation;
+import de.tum.flexsmc.smc.aggregator.Sum;
+import de.tum.flexsmc.smc.config.BgwSuite;
+import de.tum.flexsmc.smc.rpc.Aggregator;
+import dk.alexandra.fresco.framework.Application;
+import dk.alexandra.fresco.framework.Party;
+import dk.alexandra.fresco.framework.ProtocolEvaluator;
+import dk.alexandra.fresco.framework.ProtocolFactory;
+import dk.alexandra.fresco.framework.ProtocolProducer;
+import dk.alexandra.fresco.framework.sce.SCE;
+import dk.alexandra.fresco.framework.sce.SCEFactory;
+import dk.alexandra.fresco.framework.sce.configuration.SCEConfiguration;
+import dk.alexandra.fresco.framework.sce.evaluator.EvaluationStrategy;
+import dk.alexandra.fresco.framework.sce.resources.storage.InMemoryStorage;
+import dk.alexandra.fresco.framework.sce.resources.storage.Storage;
+import dk.alexandra.fresco.framework.sce.resources.storage.StreamedStorage;
+import dk.alexandra.fresco.lib.helper.sequential.SequentialProtocolProducer;
+
+/**
+ * Cost of building the protocol tree of an aggregator, i.e.
+ * {@link Application#prepareApplication(ProtocolFactory)}, without any
+ * evaluation. The BGW protocol factory is taken from a real 2-party run.
+ * MEDIAN includes the interpolation of its threshold polynomial.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProtocolConstructionBenchmark {
+	private static final int BASE_PORT = 21900;
+
+	@Param({ "SUM", "STD_DEVIATION", "MEDIAN" })
+	public Aggregator aggregator;
+
+	@Param({ "1", "64" })
+	public int vectorLen;
+
+	private SCEConfiguration conf;
+	private ProtocolFactory factory;
+	private BigInteger[] inputs;
+
+	/**
+	 * Application only remembering the factory handed over by the SCE.
+	 */
+	static class FactoryCapture implements Application {
+		private static final long serialVersionUID = 1L;
+
+		transient ProtocolFactory factory;
+
+		@Override
+		public ProtocolProducer prepareApplication(ProtocolFactory factory) {
+			this.factory = factory;
+			return new SequentialProtocolProducer();
+		}
+	}
+
+	@Setup
+	public void setup() throws Exception {
+		final Map<Integer, Party> parties = new HashMap<>();
+		parties.put(1, new Party(1, "localhost", BASE_PORT + 1));
+		parties.put(2, new Party(2, "localhost", BASE_PORT + 2));
+
+		ExecutorService threads = Executors.newFixedThreadPool(parties.size());
+		try {
+			Future<ProtocolFactory> first = null;
+			for (final int id : parties.keySet()) {
+				Future<ProtocolFactory> f = threads.submit(new Callable<ProtocolFactory>() {
+					@Override
+					public ProtocolFactory call() throws Exception {
+						SCEConfiguration c = configuration(id, parties);
+						SCE sce = SCEFactory.getSCEFromConfiguration(c, new BgwSuite(c));
+						try {
+							sce.setup();
+							FactoryCapture capture = new FactoryCapture();
+							sce.runApplication(capture);
+							return capture.factory;
+						} finally {
+							sce.shutdownSCE();
+						}
+					}
+				});
+				if (id == 1) {
+					first = f;
+				} else {
+					f.get();
+				}
+			}
+			factory = first.get();
+		} finally {
+			threads.shutdownNow();
+		}
+
+		conf = configuration(1, parties);
+		inputs = new BigInteger[vectorLen];
+		for (int i = 0; i < vectorLen; i++) {
+			inputs[i] = BigInteger.valueOf(i % Median.DEFAULT_DOMAIN);
+		}
+	}
+
+	@Benchmark
+	public ProtocolProducer construct() {
+		AggregatorApplication app;
+		switch (aggregator) {
+		case STD_DEVIATION:
+			app = new StdDeviation(conf, inputs);
+			break;
+
+		case MEDIAN:
+			app = new Median(conf, inputs, Median.DEFAULT_DOMAIN, BgwSuite.DEFAULT_MODULUS);
+			break;
+
+		default:
+			app = new Sum(conf, inputs);
+		}
+		return app.prepareApplication(factory);
+	}
+
+	private static SCEConfiguration configuration(final int myId, final Map<Integer, Party> parties) {
+		final Storage storage = new InMemoryStorage();
+		return new SCEConfiguration() {
+			@Override
+			public int getMyId() {
+				return myId;
+			}
+
+			@Override
+			public String getProtocolSuiteName() {
+				return "bgw";
+			}
+
+			@Override
+			public Map<Integer, Party> getParties() {
+				return parties;
+			}
+
+			@Override
+			public Level getLogLevel() {
+				return Level.SEVERE;
+			}
+
+			@Override
+			public int getNoOfThreads() {
+				return 1;
+			}
+
+			@Override
+			public int getNoOfVMThreads() {
+				return 1;
+			}
+
+			@Override
+			public ProtocolEvaluator getEvaluator() {
+				return EvaluationStrategy.fromEnum(EvaluationStrategy.SEQUENTIAL);
+			}
+
+			@Override
+			public Storage getStorage() {
+				return storage;
+			}
+
+			@Override
+			public int getMaxBatchSize() {
+				return 4096;
+			}
+
+			@Override
+			public StreamedStorage getStreamedStorage() {
+				return null;
+			}
+		};
+	}
+
+}
@@ -0,0 +1,69 @@
+package de.tum.flexsmc.smc.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.tum.flexsmc.smc.rpc.Aggregator;
+import de.tum.flexsmc.smc.rpc.SMCResult;
+import de.tum.flexsmc.smc.rpc.SMCTask;
+
+/**
+ * Sums a number of contributions per peer either in a single streaming
+ * session or as one job per contribution.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class StreamBenchmark {
+
+	@Param({ "3" })
+	public int parties;
+
+	@Param({ "1", "16" })
+	public int contributions;
+
+	private LocalParties local;
+	private SMCTask task;
+
+	@Setup
+	public void setup() throws Exception {
+		local = new LocalParties(parties);
+		task = LocalParties.task(Aggregator.SUM);
+	}
+
+	@TearDown
+	public void tearDown() {
+		local.shutdown();
+	}
+
+	@Benchmark
+	public SMCResult stream() throws Exception {
+		return local.runStream(task, contributions);
+	}
+
+	@Benchmark
+	public SMCResult jobs() throws Exception {
+		SMCResult res = null;
+		for (int i = 0; i < contributions; i++) {
+			res = local.runJob(task, LocalParties.Mode.PHASED);
+		}
+		return res;
+	}
+
+}
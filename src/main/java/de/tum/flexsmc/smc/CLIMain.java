@@ -1,6 +1,7 @@
 package de.tum.flexsmc.smc;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.logging.Logger;
 
 import org.apache.commons.cli.CommandLine;
@@ -10,7 +11,9 @@ import org.apache.commons.cli.Option;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 
+import de.tum.flexsmc.smc.engine.SessionScheduler;
 import de.tum.flexsmc.smc.rpc.RPCServer;
+import de.tum.flexsmc.smc.rpc.SessionTable;
 
 public final class CLIMain {
 	// Control logging behavior of io.netty that is part of gRPC.
@@ -35,6 +38,27 @@ public final class CLIMain {
 		options.addOption(Option.builder("c")
 				.desc("Custom socket address to listen for local RPC connections. E.g. \"unix:///tmp/grpc.sock\"")
 				.longOpt("suite").required(false).hasArg().build());
+		options.addOption(Option.builder("n").desc("Use the NIO transport even if native epoll is available.")
+				.longOpt("nio").required(false).hasArg(false).build());
+		options.addOption(Option.builder("s")
+				.desc("Local input source per data origin, e.g. \"TEMPERATURE=file:/tmp/temp.txt\". "
+						+ "Supported: file:/path, mmap:/path (ring buffer), tcp://host:port")
+				.longOpt("source").required(false).hasArgs().build());
+		options.addOption(Option.builder("x")
+				.desc("Maximum number of concurrent SMC sessions. Further sessions wait for a slot in arrival order.")
+				.longOpt("sessions").required(false).hasArg().build());
+		options.addOption(Option.builder("r")
+				.desc("Range of local ports SMC peers may use, e.g. \"10000-10999\".")
+				.longOpt("ports").required(false).hasArg().build());
+		options.addOption(Option.builder("l")
+				.desc("Maximum number of open sessions. Further sessions are denied on Init.")
+				.longOpt("max-open").required(false).hasArg().build());
+		options.addOption(Option.builder("e")
+				.desc("Seconds an open session may wait for its next phase before it is torn down.")
+				.longOpt("idle-timeout").required(false).hasArg().build());
+		options.addOption(Option.builder("t")
+				.desc("File to append trace spans of all jobs to as JSON lines.")
+				.longOpt("trace").required(false).hasArg().build());
 		options.addOption(Option.builder("h").desc("Display this help message").longOpt("help").required(false)
 				.hasArg(false).build());
 
@@ -68,6 +92,45 @@ public final class CLIMain {
 			logger.info("Custom socket: " + cmd.getOptionValue('c'));
 			rpcServer.setCustomSocket(cmd.getOptionValue('c'));
 		}
+		if (cmd.hasOption('n')) {
+			rpcServer.setNativeTransport(false);
+		}
+		if (cmd.hasOption('x') || cmd.hasOption('r')) {
+			int maxSessions = Integer.parseInt(
+					cmd.getOptionValue('x', String.valueOf(SessionScheduler.DEFAULT_MAX_SESSIONS)));
+			int minPort = 0;
+			int maxPort = 0;
+			if (cmd.hasOption('r')) {
+				String[] range = cmd.getOptionValue('r').split("-");
+				minPort = Integer.parseInt(range[0].trim());
+				maxPort = (range.length > 1) ? Integer.parseInt(range[1].trim()) : minPort;
+			}
+			rpcServer.setScheduler(new SessionScheduler(maxSessions, minPort, maxPort));
+		}
+		if (cmd.hasOption('l') || cmd.hasOption('e')) {
+			int maxOpen = Integer.parseInt(cmd.getOptionValue('l', String.valueOf(SessionTable.DEFAULT_CAPACITY)));
+			long idleMs = cmd.hasOption('e') ? Long.parseLong(cmd.getOptionValue('e')) * 1000
+					: SessionTable.DEFAULT_IDLE_TIMEOUT_MS;
+			rpcServer.setSessionLimits(maxOpen, idleMs);
+		}
+		if (cmd.hasOption('t')) {
+			try {
+				rpcServer.setTraceFile(Paths.get(cmd.getOptionValue('t')));
+			} catch (IOException e) {
+				logger.severe("Could not open trace file: " + e.getMessage());
+				System.exit(1);
+			}
+		}
+		if (cmd.hasOption('s')) {
+			for (String src : cmd.getOptionValues('s')) {
+				try {
+					rpcServer.getSharedResources().getInputs().register(src);
+				} catch (IOException | IllegalArgumentException e) {
+					logger.severe("Invalid input source " + src + ": " + e.getMessage());
+					System.exit(1);
+				}
+			}
+		}
 		
 		// Start RPC server
 		try {
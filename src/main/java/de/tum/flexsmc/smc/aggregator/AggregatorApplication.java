@@ -1,8 +1,39 @@
 package de.tum.flexsmc.smc.aggregator;
 
+import java.math.BigInteger;
+
+import de.tum.flexsmc.smc.input.ValueEncoder;
 import dk.alexandra.fresco.framework.Application;
 import dk.alexandra.fresco.framework.value.OInt;
 
 public interface AggregatorApplication extends Application {
+	/**
+	 * @return the opened values of the last run
+	 */
 	OInt[] getResult();
+
+	/**
+	 * @return the aggregated values of the last run, one per input element
+	 */
+	double[] getResultValues();
+
+	/**
+	 * Restricts the opening of the results to the given peers. The other
+	 * parties only help computing and learn nothing. Must be set before the
+	 * application is run.
+	 *
+	 * @param peerIds
+	 *            IDs of the result holders or null for all parties
+	 */
+	void setResultHolders(int[] peerIds);
+
+	/**
+	 * Decodes the opened values with the encoding of the inputs. Must be set
+	 * before the results are read. By default, they are unscaled and
+	 * unsigned.
+	 *
+	 * @param modulus
+	 *            prime of the field the application runs in
+	 */
+	void setEncoding(ValueEncoder encoder, BigInteger modulus);
 }
@@ -0,0 +1,97 @@
+package de.tum.flexsmc.smc.aggregator;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import de.tum.flexsmc.smc.rpc.Aggregator;
+
+/**
+ * AggregatorPlan holds everything of an aggregation which only depends on its
+ * shape, i.e. aggregator, number of parties and value domain. The vector
+ * length does not matter, all elements use the same plan. It is immutable
+ * and shared by all sessions of the same shape.
+ *
+ * FRESCO protocols are stateful and bound to the wires of a single session,
+ * so the protocol graph itself is still built per session from the plan.
+ * Only aggregators with shape dependent precomputation (MEDIAN) have a plan.
+ *
+ */
+public final class AggregatorPlan {
+	private final Aggregator aggregator;
+	private final int numPeers;
+	private final int domain;
+	private final BigInteger modulus;
+
+	// MEDIAN: multiplication layers as {exponent, step} pairs. Each power
+	// C^e is computed as C^step * C^(e - step).
+	private final int[][][] powerLayers;
+	// MEDIAN: threshold polynomial and its constant term summed over all
+	// buckets
+	private final BigInteger[] coefficients;
+	private final BigInteger constantTerm;
+
+	private AggregatorPlan(Aggregator aggregator, int numPeers, int domain, BigInteger modulus,
+			int[][][] powerLayers, BigInteger[] coefficients, BigInteger constantTerm) {
+		this.aggregator = aggregator;
+		this.numPeers = numPeers;
+		this.domain = domain;
+		this.modulus = modulus;
+		this.powerLayers = powerLayers;
+		this.coefficients = coefficients;
+		this.constantTerm = constantTerm;
+	}
+
+	public static AggregatorPlan median(int numPeers, int domain, BigInteger modulus) {
+		BigInteger[] coefficients = Median.thresholdPolynomial(numPeers, (numPeers + 1) / 2, modulus);
+		// Bucket domain - 1 always counts all values and is left out in the MPC.
+		BigInteger constant = coefficients[0].multiply(BigInteger.valueOf(domain - 1)).mod(modulus);
+
+		List<int[][]> layers = new ArrayList<>();
+		for (int step = 1; step < numPeers; step *= 2) {
+			int hi = Math.min(2 * step, numPeers);
+			int[][] layer = new int[hi - step][];
+			for (int e = step + 1; e <= hi; e++) {
+				layer[e - step - 1] = new int[] { e, step };
+			}
+			layers.add(layer);
+		}
+		return new AggregatorPlan(Aggregator.MEDIAN, numPeers, domain, modulus,
+				layers.toArray(new int[layers.size()][][]), coefficients, constant);
+	}
+
+	public Aggregator getAggregator() {
+		return aggregator;
+	}
+
+	public int getNumPeers() {
+		return numPeers;
+	}
+
+	int getDomain() {
+		return domain;
+	}
+
+	BigInteger getModulus() {
+		return modulus;
+	}
+
+	int[][][] getPowerLayers() {
+		return powerLayers;
+	}
+
+	BigInteger getCoefficient(int e) {
+		return coefficients[e];
+	}
+
+	BigInteger getConstantTerm() {
+		return constantTerm;
+	}
+
+	@Override
+	public String toString() {
+		return "AggregatorPlan [" + aggregator + ", peers=" + numPeers
+				+ ((aggregator == Aggregator.MEDIAN) ? ", domain=" + domain : "") + "]";
+	}
+
+}
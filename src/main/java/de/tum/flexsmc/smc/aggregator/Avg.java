@@ -0,0 +1,33 @@
+package de.tum.flexsmc.smc.aggregator;
+
+import java.math.BigInteger;
+
+import dk.alexandra.fresco.framework.sce.configuration.SCEConfiguration;
+
+/**
+ * Avg calculates the element-wise average of the secret input vectors among
+ * all parties. The number of contributions is public, so the average is the
+ * secret sum followed by a public division after opening. Hence, it needs no
+ * multiplication and the same rounds as {@link Sum}.
+ *
+ */
+public class Avg extends Sum {
+	private static final long serialVersionUID = 4460516434326618127L;
+
+	private final int numPeers;
+
+	public Avg(SCEConfiguration sceConf, BigInteger[] myInputs) {
+		super(sceConf, myInputs);
+		this.numPeers = sceConf.getParties().size();
+	}
+
+	@Override
+	public double[] getResultValues() {
+		double[] sums = super.getResultValues();
+		for (int i = 0; i < sums.length; i++) {
+			sums[i] /= numPeers;
+		}
+		return sums;
+	}
+
+}
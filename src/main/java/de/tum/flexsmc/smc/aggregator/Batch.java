@@ -0,0 +1,40 @@
+package de.tum.flexsmc.smc.aggregator;
+
+import dk.alexandra.fresco.framework.Application;
+import dk.alexandra.fresco.framework.ProtocolFactory;
+import dk.alexandra.fresco.framework.ProtocolProducer;
+import dk.alexandra.fresco.lib.helper.ParallelProtocolProducer;
+
+/**
+ * Batch evaluates several independent aggregations in one FRESCO application.
+ * Their protocols run in parallel, so the whole batch needs as many
+ * communication rounds as its longest aggregation. The results are fetched
+ * from the single aggregations afterwards.
+ *
+ */
+public class Batch implements Application {
+	private static final long serialVersionUID = 6373520387640951032L;
+
+	private final AggregatorApplication[] apps;
+
+	public Batch(AggregatorApplication[] apps) {
+		if (apps.length < 1) {
+			throw new IllegalArgumentException("Empty batch");
+		}
+		this.apps = apps;
+	}
+
+	@Override
+	public ProtocolProducer prepareApplication(ProtocolFactory factory) {
+		ProtocolProducer[] producers = new ProtocolProducer[apps.length];
+		for (int i = 0; i < apps.length; i++) {
+			producers[i] = apps[i].prepareApplication(factory);
+		}
+		return new ParallelProtocolProducer(producers);
+	}
+
+	public AggregatorApplication[] getApplications() {
+		return apps;
+	}
+
+}
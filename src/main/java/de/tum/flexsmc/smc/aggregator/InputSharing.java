@@ -0,0 +1,93 @@
+package de.tum.flexsmc.smc.aggregator;
+
+import java.math.BigInteger;
+
+import de.tum.flexsmc.smc.input.ValueEncoder;
+import dk.alexandra.fresco.framework.value.OInt;
+import dk.alexandra.fresco.framework.value.SInt;
+import dk.alexandra.fresco.lib.field.integer.BasicNumericFactory;
+import dk.alexandra.fresco.lib.helper.builder.NumericIOBuilder;
+
+/**
+ * Helpers for distributing the secret inputs of all parties.
+ */
+final class InputSharing {
+
+	private InputSharing() {
+	}
+
+	/**
+	 * Shares the input vector of each party among all parties. All sharings
+	 * run in a single parallel scope of the given builder.
+	 * 
+	 * @return wires indexed by [element][party - 1]
+	 */
+	static SInt[][] shareVectors(NumericIOBuilder ioBuilder, BigInteger[] myInputs, int numPeers) {
+		SInt[][] inputSharings = new SInt[myInputs.length][numPeers];
+		ioBuilder.beginParScope();
+		for (int i = 0; i < myInputs.length; i++) {
+			for (int p = 1; p <= numPeers; p++) {
+				inputSharings[i][p - 1] = ioBuilder.input(myInputs[i], p);
+			}
+		}
+		ioBuilder.endCurScope();
+		return inputSharings;
+	}
+
+	/**
+	 * Opens all values in a single parallel scope of the given builder. With
+	 * result holders, each share is only sent to them, so the opening costs
+	 * n * holders instead of n^2 messages.
+	 * 
+	 * @param holders
+	 *            peer IDs learning the values or null for all parties
+	 * @return opened values. They stay empty if myId is not a holder.
+	 */
+	static OInt[] open(BasicNumericFactory fac, NumericIOBuilder ioBuilder, SInt[] values, int myId,
+			int[] holders) {
+		OInt[] res = new OInt[values.length];
+		ioBuilder.beginParScope();
+		for (int i = 0; i < values.length; i++) {
+			if (holders == null) {
+				res[i] = ioBuilder.output(values[i]);
+				continue;
+			}
+			for (int target : holders) {
+				OInt o = fac.getOInt();
+				ioBuilder.addProtocolProducer(fac.getOpenProtocol(target, values[i], o));
+				if (target == myId || res[i] == null) {
+					res[i] = o;
+				}
+			}
+		}
+		ioBuilder.endCurScope();
+		return res;
+	}
+
+	/**
+	 * @return true if myId learns the opened values
+	 */
+	static boolean isHolder(int myId, int[] holders) {
+		if (holders == null) {
+			return true;
+		}
+		for (int h : holders) {
+			if (h == myId) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the opened values mapped back to readings
+	 */
+	static double[] decode(OInt[] values, ValueEncoder encoder, BigInteger modulus) {
+		double[] res = new double[values.length];
+		for (int i = 0; i < values.length; i++) {
+			res[i] = encoder.decode(values[i].getValue(), modulus);
+		}
+		return res;
+	}
+
+}
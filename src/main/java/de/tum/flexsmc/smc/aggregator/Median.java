@@ -0,0 +1,236 @@
+package de.tum.flexsmc.smc.aggregator;
+
+import java.math.BigInteger;
+import java.util.logging.Level;
+
+import de.tum.flexsmc.smc.input.ValueEncoder;
+import de.tum.flexsmc.smc.rpc.Aggregator;
+import dk.alexandra.fresco.framework.ProtocolFactory;
+import dk.alexandra.fresco.framework.ProtocolProducer;
+import dk.alexandra.fresco.framework.Reporter;
+import dk.alexandra.fresco.framework.sce.configuration.SCEConfiguration;
+import dk.alexandra.fresco.framework.value.OInt;
+import dk.alexandra.fresco.framework.value.SInt;
+import dk.alexandra.fresco.lib.field.integer.BasicNumericFactory;
+import dk.alexandra.fresco.lib.helper.builder.NumericIOBuilder;
+import dk.alexandra.fresco.lib.helper.builder.NumericProtocolBuilder;
+import dk.alexandra.fresco.lib.helper.sequential.SequentialProtocolProducer;
+
+/**
+ * Median calculates the element-wise (lower) median of the secret inputs among
+ * all parties. Inputs must be integers of the public domain [0, domain).
+ * Values outside are clamped.
+ * 
+ * Instead of a comparison network, each party shares the thermometer encoding
+ * of its input: t[v] = 1 iff x <= v. Summing them yields the shared counts
+ * C[v] = #{x_i <= v} in [0, n]. The median is the number of buckets v with
+ * C[v] < ceil(n/2). This predicate is a public polynomial of degree n in C[v],
+ * so only the powers C[v]^2..C[v]^n must be computed. They are built in
+ * ceil(log2(n)) parallel multiplication layers. Everything else is linear.
+ * Only the median itself is opened.
+ *
+ */
+public class Median implements AggregatorApplication {
+	private static final long serialVersionUID = 2979213526853478613L;
+
+	public static final int DEFAULT_DOMAIN = 256;
+
+	private SCEConfiguration sceConf;
+
+	private BigInteger[] myInputs;
+	private final AggregatorPlan plan;
+	private OInt[] result;
+	private int[] resultHolders;
+	private ValueEncoder encoder = ValueEncoder.IDENTITY;
+
+	public Median(SCEConfiguration sceConf, BigInteger[] myInputs, int domain, BigInteger modulus) {
+		this(sceConf, myInputs, AggregatorPlan.median(sceConf.getParties().size(), domain, modulus));
+	}
+
+	/**
+	 * @param plan
+	 *            plan of a MEDIAN for the number of parties of this session
+	 */
+	public Median(SCEConfiguration sceConf, BigInteger[] myInputs, AggregatorPlan plan) {
+		if (myInputs.length < 1) {
+			throw new IllegalArgumentException("Empty input vector");
+		} else if (plan.getDomain() < 2) {
+			throw new IllegalArgumentException("Domain too small");
+		} else if (plan.getAggregator() != Aggregator.MEDIAN || plan.getNumPeers() != sceConf.getParties().size()) {
+			throw new IllegalArgumentException("Plan does not fit: " + plan);
+		}
+		this.sceConf = sceConf;
+		this.myInputs = myInputs;
+		this.plan = plan;
+	}
+
+	@Override
+	public ProtocolProducer prepareApplication(ProtocolFactory factory) {
+		Reporter.init(Level.WARNING);
+
+		BasicNumericFactory fac = (BasicNumericFactory) factory;
+		NumericIOBuilder ioBuilder = new NumericIOBuilder(fac);
+		NumericProtocolBuilder npb = new NumericProtocolBuilder(fac);
+
+		final int numPeers = sceConf.getParties().size();
+		final int len = myInputs.length;
+		// Bucket domain - 1 always counts all values, so it is left out.
+		final int buckets = plan.getDomain() - 1;
+
+		// 1. Protocol: share thermometer encodings of all inputs
+		BigInteger[] encoded = new BigInteger[len * buckets];
+		for (int i = 0; i < len; i++) {
+			int x = clamp(myInputs[i]);
+			for (int v = 0; v < buckets; v++) {
+				encoded[i * buckets + v] = (x <= v) ? BigInteger.ONE : BigInteger.ZERO;
+			}
+		}
+		SInt[][] inputSharings = InputSharing.shareVectors(ioBuilder, encoded, numPeers);
+		ProtocolProducer closeInputProtocol = ioBuilder.getProtocol();
+		ioBuilder.reset();
+
+		// 2. Protocol: counts per bucket
+		// pow[k][e] holds C^e for bucket k = i * buckets + v
+		SInt[][] pow = new SInt[encoded.length][numPeers + 1];
+		npb.beginParScope();
+		for (int k = 0; k < encoded.length; k++) {
+			pow[k][1] = npb.sum(inputSharings[k]);
+		}
+		npb.endCurScope();
+		SequentialProtocolProducer computeProtocol = new SequentialProtocolProducer(npb.getProtocol());
+		npb.reset();
+
+		// 3. Protocol: all powers up to n, one parallel layer per doubling
+		for (int[][] layer : plan.getPowerLayers()) {
+			npb.beginParScope();
+			for (int[] p : layer) {
+				final int e = p[0];
+				final int step = p[1];
+				for (int k = 0; k < encoded.length; k++) {
+					pow[k][e] = npb.mult(pow[k][step], pow[k][e - step]);
+				}
+			}
+			npb.endCurScope();
+			computeProtocol.append(npb.getProtocol());
+			npb.reset();
+		}
+
+		// 4. Protocol: evaluate the polynomial without its constant term,
+		// summed over all buckets of an element (local operations only)
+		OInt[] coeffs = new OInt[numPeers + 1];
+		for (int e = 1; e <= numPeers; e++) {
+			coeffs[e] = fac.getOInt();
+			coeffs[e].setValue(plan.getCoefficient(e));
+		}
+		SInt[] evals = new SInt[len];
+		npb.beginParScope();
+		for (int i = 0; i < len; i++) {
+			SInt[] terms = new SInt[buckets * numPeers];
+			int t = 0;
+			for (int v = 0; v < buckets; v++) {
+				for (int e = 1; e <= numPeers; e++) {
+					terms[t++] = npb.mult(coeffs[e], pow[i * buckets + v][e]);
+				}
+			}
+			evals[i] = npb.sum(terms);
+		}
+		npb.endCurScope();
+		computeProtocol.append(npb.getProtocol());
+
+		// 5. Protocol: open all medians at once
+		this.result = InputSharing.open(fac, ioBuilder, evals, sceConf.getMyId(), resultHolders);
+		ProtocolProducer openProtocol = ioBuilder.getProtocol();
+
+		return new SequentialProtocolProducer(closeInputProtocol, computeProtocol, openProtocol);
+	}
+
+	private int clamp(BigInteger x) {
+		if (x.signum() < 0) {
+			return 0;
+		} else if (x.compareTo(BigInteger.valueOf(plan.getDomain() - 1)) > 0) {
+			return plan.getDomain() - 1;
+		}
+		return x.intValue();
+	}
+
+	@Override
+	public OInt[] getResult() {
+		return result;
+	}
+
+	@Override
+	public void setResultHolders(int[] peerIds) {
+		this.resultHolders = peerIds;
+	}
+
+	/**
+	 * The median is a bucket of [0, domain) and never negative, so only the
+	 * scale is applied.
+	 */
+	@Override
+	public void setEncoding(ValueEncoder encoder, BigInteger modulus) {
+		this.encoder = encoder;
+	}
+
+	@Override
+	public double[] getResultValues() {
+		if (!InputSharing.isHolder(sceConf.getMyId(), resultHolders)) {
+			return new double[0];
+		}
+		// Add the constant term of all buckets which was left out in the MPC.
+		BigInteger constant = plan.getConstantTerm();
+		double[] res = new double[result.length];
+		for (int i = 0; i < result.length; i++) {
+			res[i] = encoder.decode(result[i].getValue().add(constant), plan.getModulus());
+		}
+		return res;
+	}
+
+	/**
+	 * Interpolates the polynomial f over GF(modulus) with f(c) = 1 for c < k
+	 * and f(c) = 0 for k <= c <= n.
+	 * 
+	 * @return coefficients of f in ascending order (n + 1 elements)
+	 */
+	public static BigInteger[] thresholdPolynomial(int n, int k, BigInteger modulus) {
+		// Master polynomial M(x) = (x - 0)(x - 1)...(x - n)
+		BigInteger[] master = new BigInteger[n + 2];
+		master[0] = BigInteger.ONE;
+		for (int d = 1; d < master.length; d++) {
+			master[d] = BigInteger.ZERO;
+		}
+		for (int i = 0; i <= n; i++) {
+			BigInteger root = BigInteger.valueOf(i);
+			for (int d = i + 1; d > 0; d--) {
+				master[d] = master[d - 1].subtract(master[d].multiply(root)).mod(modulus);
+			}
+			master[0] = master[0].multiply(root).negate().mod(modulus);
+		}
+
+		BigInteger[] coeffs = new BigInteger[n + 1];
+		for (int d = 0; d <= n; d++) {
+			coeffs[d] = BigInteger.ZERO;
+		}
+		BigInteger[] quotient = new BigInteger[n + 1];
+		for (int i = 0; i < k && i <= n; i++) {
+			// Lagrange basis L_i = M(x) / (x - i) / prod_{j != i} (i - j)
+			BigInteger root = BigInteger.valueOf(i);
+			quotient[n] = master[n + 1];
+			for (int d = n; d > 0; d--) {
+				quotient[d - 1] = master[d].add(root.multiply(quotient[d])).mod(modulus);
+			}
+			BigInteger denom = BigInteger.ONE;
+			for (int j = 0; j <= n; j++) {
+				if (j != i) {
+					denom = denom.multiply(BigInteger.valueOf(i - j)).mod(modulus);
+				}
+			}
+			BigInteger inv = denom.modInverse(modulus);
+			for (int d = 0; d <= n; d++) {
+				coeffs[d] = coeffs[d].add(quotient[d].multiply(inv)).mod(modulus);
+			}
+		}
+		return coeffs;
+	}
+
+}
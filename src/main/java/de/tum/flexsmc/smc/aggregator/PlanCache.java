@@ -0,0 +1,104 @@
+package de.tum.flexsmc.smc.aggregator;
+
+import java.math.BigInteger;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import de.tum.flexsmc.smc.rpc.Aggregator;
+
+/**
+ * PlanCache keeps the plans of recently used aggregation shapes. Plans are
+ * immutable, so one cache may serve all connectors of a JVM.
+ *
+ */
+public class PlanCache {
+	public static final int DEFAULT_CAPACITY = 64;
+
+	private final LinkedHashMap<String, AggregatorPlan> plans;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public PlanCache() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	public PlanCache(final int capacity) {
+		// Least recently used plans are dropped first.
+		this.plans = new LinkedHashMap<String, AggregatorPlan>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, AggregatorPlan> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * @param domain
+	 *            value domain, only considered for MEDIAN
+	 * @param modulus
+	 *            field modulus, only considered for MEDIAN
+	 * @return the cached plan for the shape or null
+	 */
+	public AggregatorPlan get(Aggregator aggregator, int numPeers, int domain, BigInteger modulus) {
+		AggregatorPlan plan;
+		synchronized (plans) {
+			plan = plans.get(key(aggregator, numPeers, domain, modulus));
+		}
+		if (plan == null) {
+			misses.incrementAndGet();
+		} else {
+			hits.incrementAndGet();
+		}
+		return plan;
+	}
+
+	/**
+	 * Adds a plan. If a plan for the same shape was added concurrently, that
+	 * one is kept.
+	 *
+	 * @return the cached plan for the shape
+	 */
+	public AggregatorPlan put(AggregatorPlan plan) {
+		String key = key(plan.getAggregator(), plan.getNumPeers(), plan.getDomain(), plan.getModulus());
+		synchronized (plans) {
+			AggregatorPlan old = plans.get(key);
+			if (old != null) {
+				return old;
+			}
+			plans.put(key, plan);
+		}
+		return plan;
+	}
+
+	private static String key(Aggregator aggregator, int numPeers, int domain, BigInteger modulus) {
+		StringBuilder key = new StringBuilder(32).append(aggregator.getNumber()).append('|').append(numPeers);
+		if (aggregator == Aggregator.MEDIAN) {
+			key.append('|').append(domain).append('|').append(modulus);
+		}
+		return key.toString();
+	}
+
+	public int size() {
+		synchronized (plans) {
+			return plans.size();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public String toString() {
+		return "PlanCache [size=" + size() + ", hits=" + getHits() + ", misses=" + getMisses() + "]";
+	}
+
+}
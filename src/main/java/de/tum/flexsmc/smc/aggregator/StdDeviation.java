@@ -0,0 +1,118 @@
+package de.tum.flexsmc.smc.aggregator;
+
+import java.math.BigInteger;
+import java.util.logging.Level;
+
+import de.tum.flexsmc.smc.input.ValueEncoder;
+import dk.alexandra.fresco.framework.ProtocolFactory;
+import dk.alexandra.fresco.framework.ProtocolProducer;
+import dk.alexandra.fresco.framework.Reporter;
+import dk.alexandra.fresco.framework.sce.configuration.SCEConfiguration;
+import dk.alexandra.fresco.framework.value.OInt;
+import dk.alexandra.fresco.framework.value.SInt;
+import dk.alexandra.fresco.lib.field.integer.BasicNumericFactory;
+import dk.alexandra.fresco.lib.helper.builder.NumericIOBuilder;
+import dk.alexandra.fresco.lib.helper.builder.NumericProtocolBuilder;
+import dk.alexandra.fresco.lib.helper.sequential.SequentialProtocolProducer;
+
+/**
+ * StdDeviation calculates the element-wise population standard deviation of
+ * the secret input vectors among all parties.
+ * 
+ * Each party shares its readings and their squares as a second input vector.
+ * Only the sum and the sum of squares are opened, so it needs no
+ * multiplication and the same rounds as {@link Sum}.
+ *
+ */
+public class StdDeviation implements AggregatorApplication {
+	private static final long serialVersionUID = -5101290467581750931L;
+
+	private SCEConfiguration sceConf;
+
+	private BigInteger[] myInputs;
+	// Opened sums followed by the opened sums of squares
+	private OInt[] result;
+	private int[] resultHolders;
+	private ValueEncoder encoder = ValueEncoder.IDENTITY;
+	private BigInteger modulus;
+
+	public StdDeviation(SCEConfiguration sceConf, BigInteger[] myInputs) {
+		if (myInputs.length < 1) {
+			throw new IllegalArgumentException("Empty input vector");
+		}
+		this.sceConf = sceConf;
+		this.myInputs = myInputs;
+	}
+
+	@Override
+	public ProtocolProducer prepareApplication(ProtocolFactory factory) {
+		Reporter.init(Level.WARNING);
+
+		BasicNumericFactory fac = (BasicNumericFactory) factory;
+		NumericIOBuilder ioBuilder = new NumericIOBuilder(fac);
+		NumericProtocolBuilder npb = new NumericProtocolBuilder(fac);
+
+		final int numPeers = sceConf.getParties().size();
+		final int len = myInputs.length;
+
+		// 1. Protocol: share all inputs and their squares
+		BigInteger[] withSquares = new BigInteger[2 * len];
+		for (int i = 0; i < len; i++) {
+			withSquares[i] = myInputs[i];
+			withSquares[len + i] = myInputs[i].multiply(myInputs[i]);
+		}
+		SInt[][] inputSharings = InputSharing.shareVectors(ioBuilder, withSquares, numPeers);
+		ProtocolProducer closeInputProtocol = ioBuilder.getProtocol();
+		ioBuilder.reset();
+
+		// 2. Protocol: local sums of values and squares
+		SInt[] ssums = new SInt[2 * len];
+		npb.beginParScope();
+		for (int i = 0; i < 2 * len; i++) {
+			ssums[i] = npb.sum(inputSharings[i]);
+		}
+		npb.endCurScope();
+		ProtocolProducer sumProtocol = npb.getProtocol();
+
+		// 3. Protocol: open both sums at once
+		this.result = InputSharing.open(fac, ioBuilder, ssums, sceConf.getMyId(), resultHolders);
+		ProtocolProducer openProtocol = ioBuilder.getProtocol();
+
+		return new SequentialProtocolProducer(closeInputProtocol, sumProtocol, openProtocol);
+	}
+
+	@Override
+	public OInt[] getResult() {
+		return result;
+	}
+
+	@Override
+	public void setResultHolders(int[] peerIds) {
+		this.resultHolders = peerIds;
+	}
+
+	@Override
+	public void setEncoding(ValueEncoder encoder, BigInteger modulus) {
+		this.encoder = encoder;
+		this.modulus = modulus;
+	}
+
+	@Override
+	public double[] getResultValues() {
+		if (!InputSharing.isHolder(sceConf.getMyId(), resultHolders)) {
+			return new double[0];
+		}
+		final int len = result.length / 2;
+		final BigInteger n = BigInteger.valueOf(sceConf.getParties().size());
+		double[] res = new double[len];
+		for (int i = 0; i < len; i++) {
+			BigInteger sum = ValueEncoder.signed(result[i].getValue(), modulus);
+			BigInteger sumSq = ValueEncoder.signed(result[len + i].getValue(), modulus);
+			// n^2 * scale^2 * variance, exact
+			BigInteger scaledVar = n.multiply(sumSq).subtract(sum.multiply(sum));
+			res[i] = Math.sqrt(Math.max(0.0, scaledVar.doubleValue())) / n.doubleValue() / encoder.getScale();
+		}
+		return res;
+	}
+
+}
@@ -0,0 +1,132 @@
+package de.tum.flexsmc.smc.aggregator;
+
+import java.math.BigInteger;
+import java.util.logging.Level;
+
+import de.tum.flexsmc.smc.input.ValueEncoder;
+import dk.alexandra.fresco.framework.ProtocolFactory;
+import dk.alexandra.fresco.framework.ProtocolProducer;
+import dk.alexandra.fresco.framework.Reporter;
+import dk.alexandra.fresco.framework.sce.configuration.SCEConfiguration;
+import dk.alexandra.fresco.framework.value.OInt;
+import dk.alexandra.fresco.framework.value.SInt;
+import dk.alexandra.fresco.lib.field.integer.BasicNumericFactory;
+import dk.alexandra.fresco.lib.helper.builder.NumericIOBuilder;
+import dk.alexandra.fresco.lib.helper.builder.NumericProtocolBuilder;
+import dk.alexandra.fresco.lib.helper.sequential.SequentialProtocolProducer;
+
+/**
+ * StreamWindow adds one contribution of all parties to running secret-shared
+ * sums. The sums outlive the application, so a long-lived session aggregates
+ * a whole window of contributions on the same SCE. Only closing the window
+ * opens the sums.
+ *
+ * Adding a contribution costs the rounds of the input sharing. The sums
+ * themselves are local due to the linearity of the shares.
+ *
+ */
+public class StreamWindow implements AggregatorApplication {
+	private static final long serialVersionUID = -3405367413213565023L;
+
+	private final SCEConfiguration sceConf;
+	private final BigInteger[] myInputs;
+	private final SInt[] accumulator;
+	private final boolean close;
+
+	private SInt[] sums;
+	private OInt[] result;
+	private int[] resultHolders;
+	private ValueEncoder encoder = ValueEncoder.IDENTITY;
+	private BigInteger modulus;
+
+	/**
+	 * @param accumulator
+	 *            running sums of the window from the previous contributions
+	 *            or null for the first one
+	 * @param close
+	 *            open the sums after adding this contribution
+	 */
+	public StreamWindow(SCEConfiguration sceConf, BigInteger[] myInputs, SInt[] accumulator, boolean close) {
+		if (myInputs.length < 1) {
+			throw new IllegalArgumentException("Empty input vector");
+		} else if (accumulator != null && accumulator.length != myInputs.length) {
+			throw new IllegalArgumentException("Vector length changed within window");
+		}
+		this.sceConf = sceConf;
+		this.myInputs = myInputs;
+		this.accumulator = accumulator;
+		this.close = close;
+	}
+
+	@Override
+	public ProtocolProducer prepareApplication(ProtocolFactory factory) {
+		Reporter.init(Level.WARNING);
+
+		BasicNumericFactory fac = (BasicNumericFactory) factory;
+		NumericIOBuilder ioBuilder = new NumericIOBuilder(fac);
+		NumericProtocolBuilder npb = new NumericProtocolBuilder(fac);
+
+		final int numPeers = sceConf.getParties().size();
+		final int len = myInputs.length;
+
+		// 1. Protocol: share the contribution of each party
+		SInt[][] inputSharings = InputSharing.shareVectors(ioBuilder, myInputs, numPeers);
+		ProtocolProducer closeInputProtocol = ioBuilder.getProtocol();
+		ioBuilder.reset();
+
+		// 2. Protocol: add it to the running sums
+		this.sums = new SInt[len];
+		npb.beginParScope();
+		for (int i = 0; i < len; i++) {
+			SInt s = npb.sum(inputSharings[i]);
+			sums[i] = (accumulator != null) ? npb.add(accumulator[i], s) : s;
+		}
+		npb.endCurScope();
+		ProtocolProducer sumProtocol = npb.getProtocol();
+
+		if (!close) {
+			return new SequentialProtocolProducer(closeInputProtocol, sumProtocol);
+		}
+		// 3. Protocol: open the sums of the window
+		this.result = InputSharing.open(fac, ioBuilder, sums, sceConf.getMyId(), resultHolders);
+		ProtocolProducer openProtocol = ioBuilder.getProtocol();
+
+		return new SequentialProtocolProducer(closeInputProtocol, sumProtocol, openProtocol);
+	}
+
+	/**
+	 * @return running sums including this contribution. They are valid input
+	 *         for the next contribution on the same SCE.
+	 */
+	public SInt[] getAccumulator() {
+		return sums;
+	}
+
+	@Override
+	public OInt[] getResult() {
+		return result;
+	}
+
+	/**
+	 * @return sums of the window or nothing if the window was not closed
+	 */
+	@Override
+	public double[] getResultValues() {
+		if (result == null || !InputSharing.isHolder(sceConf.getMyId(), resultHolders)) {
+			return new double[0];
+		}
+		return InputSharing.decode(result, encoder, modulus);
+	}
+
+	@Override
+	public void setResultHolders(int[] peerIds) {
+		this.resultHolders = peerIds;
+	}
+
+	@Override
+	public void setEncoding(ValueEncoder encoder, BigInteger modulus) {
+		this.encoder = encoder;
+		this.modulus = modulus;
+	}
+
+}
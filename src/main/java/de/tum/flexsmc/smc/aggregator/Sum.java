@@ -3,6 +3,7 @@ package de.tum.flexsmc.smc.aggregator;
 import java.math.BigInteger;
 import java.util.logging.Level;
 
+import de.tum.flexsmc.smc.input.ValueEncoder;
 import dk.alexandra.fresco.framework.ProtocolFactory;
 import dk.alexandra.fresco.framework.ProtocolProducer;
 import dk.alexandra.fresco.framework.Reporter;
@@ -15,9 +16,14 @@ import dk.alexandra.fresco.lib.helper.builder.NumericProtocolBuilder;
 import dk.alexandra.fresco.lib.helper.sequential.SequentialProtocolProducer;
 
 /**
- * Sum is a FRESCO application calculating the sum of all secret values among
- * all parties. By default, the summed shares are distributed to all peers so
- * each of them is able to calculate the outcome of the sum computation.
+ * Sum is a FRESCO application calculating the element-wise sum of the secret
+ * input vectors among all parties. By default, the summed shares are
+ * distributed to all peers so each of them is able to calculate the outcome of
+ * the sum computation.
+ * 
+ * All elements are shared, summed and opened in parallel. So a vector costs
+ * the same number of communication rounds as a single value. All parties must
+ * provide vectors of the same length.
  * 
  * @author stefan
  *
@@ -27,13 +33,18 @@ public class Sum implements AggregatorApplication {
 
 	private SCEConfiguration sceConf;
 
-	private BigInteger myInput;
+	private BigInteger[] myInputs;
 	private OInt[] result;
+	private int[] resultHolders;
+	private ValueEncoder encoder = ValueEncoder.IDENTITY;
+	private BigInteger modulus;
 
-	public Sum(SCEConfiguration sceConf) {
+	public Sum(SCEConfiguration sceConf, BigInteger[] myInputs) {
+		if (myInputs.length < 1) {
+			throw new IllegalArgumentException("Empty input vector");
+		}
 		this.sceConf = sceConf;
-		// XXX: testing
-		this.myInput = BigInteger.valueOf(sceConf.getMyId() * 2);
+		this.myInputs = myInputs;
 	}
 
 	@Override
@@ -46,60 +57,29 @@ public class Sum implements AggregatorApplication {
 		NumericProtocolBuilder npb = new NumericProtocolBuilder(fac);
 
 		final int numPeers = sceConf.getParties().size();
-
-		// Create wires for retrieving the others' shared secret part and ours
-		// one
-		SInt[] inputSharings = new SInt[numPeers];
-
-		// Closing protocol: what happens behind the scene
-		// for (int i = 0; i < inputSharings.length; i++) {
-		// inputSharings[i] = fac.getSInt();
-		// }
-
-		// Each participant provides a secret value which is shared secretly
-		// among the other parties
-		// ParallelProtocolProducer shareInputPar = new
-		// ParallelProtocolProducer();
-		// OInt oi = fac.getOInt();
-		// oi.setValue(myValue);
-		// for (int p = 1; p <= numPeers; p++) {
-		// shareInputPar.append(fac.getCloseProtocol(p, oi, inputSharings[p -
-		// 1]));
-		// }
-
-		ioBuilder.beginParScope();
-		for (int p = 1; p <= numPeers; p++) {
-			inputSharings[p - 1] = ioBuilder.input(myInput, p);
-		}
-		ioBuilder.endCurScope();
-		ProtocolProducer closeInputProtocol = (SequentialProtocolProducer) ioBuilder.getProtocol();
+		final int len = myInputs.length;
+
+		// Create wires for retrieving the others' shared secret parts and our
+		// own ones. Each participant provides a secret vector which is shared
+		// secretly among the other parties. All sharings run in one parallel
+		// scope.
+		SInt[][] inputSharings = InputSharing.shareVectors(ioBuilder, myInputs, numPeers);
+		ProtocolProducer closeInputProtocol = ioBuilder.getProtocol();
 		ioBuilder.reset();
 
 		// 2. Protocol: summing up all received shared secrets and one part of
-		// our own one
+		// our own one per element.
 		// This works locally due to the linear properties of the shared secrets
-
-		// Behind the scene: create sequence of protocols which will compute the
-		// sum
-		// SInt ssum = fac.getSInt();
-		// SequentialProtocolProducer sumProtocol = new
-		// SequentialProtocolProducer();
-		// sumProtocol.append(fac.getAddProtocol(inputSharings[0],
-		// inputSharings[1], sum1));
-		//
-		// if (inputSharings.length > 2) {
-		// for (int i = 2; i < inputSharings.length; i++) {
-		// // Add sum and next secret shared input and
-		// // store in sum.
-		// sumProtocol.append(fac.getAddProtocol(sum1,
-		// inputSharings[i], sum1));
-		// }
-		// }
-
-		SInt ssum = npb.sum(inputSharings);
+		SInt[] ssums = new SInt[len];
+		npb.beginParScope();
+		for (int i = 0; i < len; i++) {
+			ssums[i] = npb.sum(inputSharings[i]);
+		}
+		npb.endCurScope();
 		ProtocolProducer sumProtocol = npb.getProtocol();
 
-		this.result = new OInt[] { ioBuilder.output(ssum) };
+		// 3. Protocol: open all sums at once
+		this.result = InputSharing.open(fac, ioBuilder, ssums, sceConf.getMyId(), resultHolders);
 		ProtocolProducer openProtocol = ioBuilder.getProtocol();
 
 		ProtocolProducer gp = new SequentialProtocolProducer(closeInputProtocol, sumProtocol, openProtocol);
@@ -111,4 +91,23 @@ public class Sum implements AggregatorApplication {
 		return result;
 	}
 
+	@Override
+	public double[] getResultValues() {
+		if (!InputSharing.isHolder(sceConf.getMyId(), resultHolders)) {
+			return new double[0];
+		}
+		return InputSharing.decode(result, encoder, modulus);
+	}
+
+	@Override
+	public void setResultHolders(int[] peerIds) {
+		this.resultHolders = peerIds;
+	}
+
+	@Override
+	public void setEncoding(ValueEncoder encoder, BigInteger modulus) {
+		this.encoder = encoder;
+		this.modulus = modulus;
+	}
+
 }
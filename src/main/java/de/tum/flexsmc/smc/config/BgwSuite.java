@@ -8,13 +8,25 @@ import dk.alexandra.fresco.suite.bgw.configuration.BgwConfiguration;
 
 public class BgwSuite implements BgwConfiguration {
 	private static final Logger l = Logger.getLogger(BgwSuite.class.getName());
-	private static BigInteger DEFAULT_MODULUS = new BigInteger("618970019642690137449562111");
+	// Mersenne prime 2^89 - 1
+	public static final BigInteger DEFAULT_MODULUS = new BigInteger("618970019642690137449562111");
+	// Mersenne prime 2^61 - 1, sufficient for small aggregates
+	public static final BigInteger MERSENNE_61 = new BigInteger("2305843009213693951");
 
 	private int threshold;
 	private BigInteger modulus;
 	
 	public BgwSuite(SCEConfiguration sceConf) {
-		modulus = DEFAULT_MODULUS;
+		this(sceConf, DEFAULT_MODULUS);
+	}
+
+	/**
+	 * @param modulus
+	 *            prime of the field all shares live in. All results and
+	 *            intermediate sums must be smaller.
+	 */
+	public BgwSuite(SCEConfiguration sceConf, BigInteger modulus) {
+		this.modulus = modulus;
 		// Allow < n/2 parties to be corrupt
 		threshold = ((int) Math.ceil((double) sceConf.getParties().size() / 2.0)) - 1;
 		if (threshold < 0) {
@@ -1,6 +1,10 @@
 package de.tum.flexsmc.smc.engine;
 
 import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -10,13 +14,30 @@ import java.util.logging.Logger;
 import org.apache.commons.lang.ArrayUtils;
 
 import de.tum.flexsmc.smc.aggregator.AggregatorApplication;
+import de.tum.flexsmc.smc.aggregator.Avg;
+import de.tum.flexsmc.smc.aggregator.AggregatorPlan;
+import de.tum.flexsmc.smc.aggregator.Batch;
+import de.tum.flexsmc.smc.aggregator.Median;
+import de.tum.flexsmc.smc.aggregator.PlanCache;
+import de.tum.flexsmc.smc.aggregator.StdDeviation;
+import de.tum.flexsmc.smc.aggregator.StreamWindow;
 import de.tum.flexsmc.smc.aggregator.Sum;
 import de.tum.flexsmc.smc.config.BgwSuite;
+import de.tum.flexsmc.smc.input.InputProvider;
+import de.tum.flexsmc.smc.input.InputRegistry;
+import de.tum.flexsmc.smc.input.ValueEncoder;
+import de.tum.flexsmc.smc.metrics.Metrics;
 import de.tum.flexsmc.smc.rpc.Aggregator;
 import de.tum.flexsmc.smc.rpc.CmdResult;
+import de.tum.flexsmc.smc.rpc.LinkingPhase;
 import de.tum.flexsmc.smc.rpc.PreparePhase;
 import de.tum.flexsmc.smc.rpc.SMCResult;
+import de.tum.flexsmc.smc.rpc.SMCTask;
+import de.tum.flexsmc.smc.rpc.SessionPhase;
+import de.tum.flexsmc.smc.tracing.Span;
 import de.tum.flexsmc.smc.utils.Env;
+import de.tum.flexsmc.smc.utils.TaskOptions;
+import dk.alexandra.fresco.framework.Application;
 import dk.alexandra.fresco.framework.MPCException;
 import dk.alexandra.fresco.framework.Party;
 import dk.alexandra.fresco.framework.ProtocolEvaluator;
@@ -24,11 +45,11 @@ import dk.alexandra.fresco.framework.sce.SCE;
 import dk.alexandra.fresco.framework.sce.SCEFactory;
 import dk.alexandra.fresco.framework.sce.configuration.ProtocolSuiteConfiguration;
 import dk.alexandra.fresco.framework.sce.configuration.SCEConfiguration;
-import dk.alexandra.fresco.framework.sce.evaluator.SequentialEvaluator;
+import dk.alexandra.fresco.framework.sce.evaluator.EvaluationStrategy;
 import dk.alexandra.fresco.framework.sce.resources.storage.InMemoryStorage;
 import dk.alexandra.fresco.framework.sce.resources.storage.Storage;
 import dk.alexandra.fresco.framework.sce.resources.storage.StreamedStorage;
-import dk.alexandra.fresco.framework.value.OInt;
+import dk.alexandra.fresco.framework.value.SInt;
 
 /**
  * BgwEngine controls all settings to employ a SMC round based on the BGW
@@ -41,24 +62,307 @@ import dk.alexandra.fresco.framework.value.OInt;
 public class BgwEngine extends EngineControl {
 	private static final Logger l = Logger.getLogger(BgwEngine.class.getName());
 	
-	public static final Aggregator[] supportedAggregators = {Aggregator.SUM};
+	public static final Aggregator[] supportedAggregators = {Aggregator.SUM, Aggregator.AVG, Aggregator.MEDIAN,
+			Aggregator.STD_DEVIATION};
+	/**
+	 * Task option selecting the FRESCO protocol evaluator, e.g.
+	 * "parallel_batched". See {@link EvaluationStrategy} for possible values.
+	 */
+	public static final String OPT_EVALUATOR = "evaluator";
+	public static final EvaluationStrategy DEFAULT_EVALUATOR = EvaluationStrategy.SEQUENTIAL;
+	/**
+	 * Task option to keep the peer links open for later sessions with the
+	 * same participants. Its value (dec, at least 1) is the epoch the GW
+	 * assigns to links set up by this job. Links are only reused if the GW
+	 * confirms the epoch all peers reported in PREPARE, see
+	 * {@link #META_LINK_EPOCH}. FUSED jobs never reuse links.
+	 */
+	public static final String OPT_REUSE_LINKS = "reuse_links";
+	/**
+	 * Metadata key of the PREPARE reply holding the epoch of the cached peer
+	 * link reserved for this session. Missing if there is none.
+	 */
+	public static final String META_LINK_EPOCH = "linkEpoch";
+	/**
+	 * Task option defining the number of values each peer contributes. All
+	 * values are aggregated element-wise in a single session.
+	 */
+	public static final String OPT_VECTOR_LEN = "vector_len";
+	public static final int MAX_VECTOR_LEN = 1 << 16;
+	/**
+	 * Task option defining the public value domain [0, domain) for MEDIAN.
+	 */
+	public static final String OPT_DOMAIN = "domain";
+	public static final int MAX_DOMAIN = 1 << 12;
+	/**
+	 * MEDIAN shares a thermometer encoding of each value, so its size is
+	 * bounded by vector_len * (domain - 1) instead of each factor alone.
+	 */
+	public static final int MAX_MEDIAN_BUCKETS = 1 << 16;
+	/**
+	 * Upper bound of the shares a session may hold, across all tasks of a
+	 * batch. Checked in PREPARE once the number of parties is known.
+	 */
+	public static final long MAX_SESSION_SHARES = 1 << 21;
+	/**
+	 * Task option defining the fixed-point scale applied to input readings.
+	 * Results are scaled back. MEDIAN only supports scale 1.
+	 */
+	public static final String OPT_SCALE = "scale";
+	/**
+	 * Task option selecting the prime field: "m89" (default, 2^89 - 1), "m61"
+	 * (2^61 - 1) or any prime in decimal of at most MAX_MODULUS_BITS. A
+	 * smaller prime shortens the shares as long as all sums fit. The
+	 * protocols compute on BigInteger for any prime.
+	 */
+	public static final String OPT_MODULUS = "modulus";
+	public static final int MIN_MODULUS_BITS = 31;
+	// Bounds the cost of the primality test and of all field operations
+	public static final int MAX_MODULUS_BITS = 2048;
+	/**
+	 * Task option defining the BGW threshold, i.e. the number of colluding
+	 * parties tolerated. Defaults to ceil(n/2) - 1. It must be at least 1 and
+	 * below n. Aggregators with multiplications require 2 * threshold < n.
+	 */
+	public static final String OPT_THRESHOLD = "threshold";
+	/**
+	 * Task option defining the number of result holders. Only the peers with
+	 * the lowest IDs receive the result, all others reply with an empty result
+	 * vector. 0 (default) opens the result to everyone. It only restricts who
+	 * learns the result. The inputs are still shared among and computed by all
+	 * n parties.
+	 */
+	public static final String OPT_RESULT_HOLDERS = "result_holders";
+	/**
+	 * Maximum number of tasks of a batch job, including the main task.
+	 */
+	public static final int MAX_BATCH_TASKS = 64;
+
+	// Rough heap usage for memory accounting: an engine shell, the buffers of
+	// an SCE and a single share including its wrappers.
+	private static final long ENGINE_BYTES = 4 * 1024;
+	private static final long SCE_BYTES = 64 * 1024;
+	private static final long SHARE_OVERHEAD_BYTES = 64;
+
+	// Plans only depend on the shape of a job, so all engines share them.
+	private static final PlanCache plans = new PlanCache();
+
+	private EvaluationStrategy evalStrategy = DEFAULT_EVALUATOR;
+	private final PeerLinkCache linkCache;
+	private final InputRegistry inputs;
+	private final SessionScheduler scheduler;
+
+	/**
+	 * Aggregation holds the per-task state of a session. A batch job has one
+	 * for each task. All of them are evaluated in the same rounds.
+	 */
+	private static final class Aggregation {
+		final SMCTask task;
+		final int vectorLen;
+		final int domain;
+		final ValueEncoder encoder;
+		BigInteger[] inputs;
+		AggregatorApplication app;
+
+		Aggregation(SMCTask task, int vectorLen, int domain, ValueEncoder encoder) {
+			this.task = task;
+			this.vectorLen = vectorLen;
+			this.domain = domain;
+			this.encoder = encoder;
+		}
+	}
+
+	// Main task first, then the batch tasks. Replaced as a whole, so it can
+	// be read for accounting from other threads.
+	private volatile List<Aggregation> aggregations = Collections.emptyList();
+	private BigInteger modulus = BgwSuite.DEFAULT_MODULUS;
+	private int threshold = -1;
+	private int numResultHolders = 0;
+	private int[] resultHolders;
+	private boolean reuseLinks = false;
+	private int linkEpoch = 0;
+	// Streaming: running sums of the current window and its contributions
+	private SInt[] windowSums;
+	private int windowContributions = 0;
+	private boolean inputsFetched = false;
+	private String topologyKey;
+	// Cached link reserved in PREPARE until the GW decides on its reuse
+	private PeerLinkCache.Link cachedLink;
+	// Also accessed by the watchdog on abort
+	private volatile PeerLinkCache.Link link;
+	private boolean linked = false;
+	// Session slot of the scheduler. Guarded by this, as the tear down may
+	// race with a phase.
+	private boolean admitted = false;
+	private boolean invalidated = false;
+	private SessionScheduler.PortLease portLease;
 
 	private SCEConfiguration sceConf;
 	private ProtocolSuiteConfiguration suiteConf;
-	private SCE smcEngine;
+	private volatile SCE smcEngine;
+	private volatile boolean aborted = false;
 
-	private AggregatorApplication frescoApp;
+	private Application frescoApp;
 
 	public BgwEngine() {
+		this(SharedResources.none());
+	}
+
+	/**
+	 * @param shared
+	 *            connector-wide facilities. Without a link cache, links are
+	 *            never reused. Without input sources, all tasks are denied.
+	 */
+	public BgwEngine(SharedResources shared) {
+		super(shared.getMetrics(), shared.getTracer());
+		this.linkCache = shared.getLinkCache();
+		this.inputs = shared.getInputs();
+		this.scheduler = shared.getScheduler();
 	}
 	
 	private void verifyTaskRequirements() throws RuntimeException {
 		// Task object must already be set by EngineControl.
 		
+		// Checked here, so a bad value is denied before any link is set up.
+		phaseTimeoutMs = parseTimeoutMillis(task);
+
+		// Aggregations
+		if (batchTasks.size() + 1 > MAX_BATCH_TASKS) {
+			throw new SmcException("too many batch tasks: " + batchTasks.size(), CmdResult.Status.DENIED);
+		}
+		List<Aggregation> aggs = new ArrayList<>(batchTasks.size() + 1);
+		aggs.add(verifyAggregation(task));
+		for (SMCTask t : batchTasks) {
+			aggs.add(verifyAggregation(t));
+		}
+		aggregations = Collections.unmodifiableList(aggs);
+		// Local input sources
+		for (Aggregation agg : aggs) {
+			if (inputs == null || inputs.get(agg.task.getSource()) == null) {
+				throw new SmcException("no local input source for " + agg.task.getSource(),
+						CmdResult.Status.DENIED);
+			}
+		}
+		// Evaluation strategy
+		String evaluator = TaskOptions.getString(task, OPT_EVALUATOR, DEFAULT_EVALUATOR.name());
+		try {
+			evalStrategy = EvaluationStrategy.valueOf(evaluator.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new SmcException("evaluator not supported: " + evaluator, CmdResult.Status.DENIED);
+		}
+		// Field
+		modulus = parseModulus(TaskOptions.getString(task, OPT_MODULUS, "m89"));
+		// Corruption threshold and result holders, checked against the
+		// participants later
+		threshold = TaskOptions.getInt(task, OPT_THRESHOLD, -1);
+		numResultHolders = TaskOptions.getInt(task, OPT_RESULT_HOLDERS, 0);
+		if ((threshold != -1 && threshold < 1) || numResultHolders < 0) {
+			throw new SmcException("invalid threshold or number of result holders", CmdResult.Status.DENIED);
+		}
+		// Reuse of peer links
+		linkEpoch = TaskOptions.getInt(task, OPT_REUSE_LINKS, 0);
+		if (linkEpoch < 0) {
+			throw new SmcException("invalid link epoch: " + linkEpoch, CmdResult.Status.DENIED);
+		}
+		reuseLinks = linkCache != null && linkEpoch > 0;
+		// Streams keep running sums, so they support sums only.
+		if (isStreaming() && (!batchTasks.isEmpty()
+				|| (task.getAggregator() != Aggregator.SUM && task.getAggregator() != Aggregator.AVG))) {
+			throw new SmcException("streaming supports a single SUM or AVG task only", CmdResult.Status.DENIED);
+		}
+	}
+
+	/**
+	 * Checks the options of a single aggregation.
+	 */
+	private static Aggregation verifyAggregation(SMCTask t) {
 		// Aggregator support
-		if (!ArrayUtils.contains(supportedAggregators, task.getAggregator())) {
+		if (!ArrayUtils.contains(supportedAggregators, t.getAggregator())) {
 			throw new SmcException("aggregator not supported", CmdResult.Status.UNKNOWN_CMD);
 		}
+		// Number of values per peer
+		int vectorLen = TaskOptions.getInt(t, OPT_VECTOR_LEN, 1);
+		if (vectorLen < 1 || vectorLen > MAX_VECTOR_LEN) {
+			throw new SmcException("invalid vector length: " + vectorLen, CmdResult.Status.DENIED);
+		}
+		// Value domain
+		int domain = TaskOptions.getInt(t, OPT_DOMAIN, Median.DEFAULT_DOMAIN);
+		if (domain < 2 || domain > MAX_DOMAIN) {
+			throw new SmcException("invalid domain: " + domain, CmdResult.Status.DENIED);
+		}
+		if (t.getAggregator() == Aggregator.MEDIAN && (long) vectorLen * (domain - 1) > MAX_MEDIAN_BUCKETS) {
+			throw new SmcException("vector length times domain too large: " + vectorLen + " * " + domain,
+					CmdResult.Status.DENIED);
+		}
+		// Input encoding
+		int scale = TaskOptions.getInt(t, OPT_SCALE, 1);
+		if (scale < 1) {
+			throw new SmcException("invalid scale: " + scale, CmdResult.Status.DENIED);
+		} else if (scale != 1 && t.getAggregator() == Aggregator.MEDIAN) {
+			// Scaled readings would exceed the domain and be clamped.
+			throw new SmcException("MEDIAN requires scale 1", CmdResult.Status.DENIED);
+		}
+		return new Aggregation(t, vectorLen, domain, (scale == 1) ? ValueEncoder.IDENTITY : new ValueEncoder(scale));
+	}
+
+	private static BigInteger parseModulus(String opt) {
+		switch (opt.toLowerCase()) {
+		case "m89":
+			return BgwSuite.DEFAULT_MODULUS;
+		case "m61":
+			return BgwSuite.MERSENNE_61;
+		default:
+			BigInteger p;
+			try {
+				p = new BigInteger(opt);
+			} catch (NumberFormatException e) {
+				throw new SmcException("invalid modulus: " + opt, CmdResult.Status.DENIED);
+			}
+			if (p.bitLength() < MIN_MODULUS_BITS || p.bitLength() > MAX_MODULUS_BITS || !p.isProbablePrime(64)) {
+				throw new SmcException("modulus must be a prime of " + MIN_MODULUS_BITS + " to " + MAX_MODULUS_BITS
+						+ " bits", CmdResult.Status.DENIED);
+			}
+			return p;
+		}
+	}
+
+	/**
+	 * Checks threshold and number of result holders against the participants
+	 * and selects the result holders.
+	 */
+	private void verifyParticipants(List<PreparePhase.Participant> participants) {
+		final int n = participants.size();
+		if (threshold >= 0) {
+			boolean linear = true;
+			for (Aggregation agg : aggregations) {
+				linear &= agg.task.getAggregator() == Aggregator.SUM || agg.task.getAggregator() == Aggregator.AVG;
+			}
+			// Honest majority for multiplications
+			if (linear ? threshold >= n : 2 * threshold >= n) {
+				throw new SmcException("threshold " + threshold + " too high for " + n + " parties",
+						CmdResult.Status.DENIED);
+			}
+		}
+		long shares = 0;
+		for (Aggregation agg : aggregations) {
+			shares += estimateShares(agg, n);
+		}
+		if (shares > MAX_SESSION_SHARES) {
+			throw new SmcException("session too large: about " + shares + " shares for " + n + " parties",
+					CmdResult.Status.DENIED);
+		}
+		if (numResultHolders > n) {
+			throw new SmcException("more result holders than participants", CmdResult.Status.DENIED);
+		}
+		resultHolders = null;
+		if (numResultHolders > 0 && numResultHolders < n) {
+			int[] ids = new int[n];
+			for (int i = 0; i < n; i++) {
+				ids[i] = participants.get(i).getSmcPeerID();
+			}
+			Arrays.sort(ids);
+			resultHolders = Arrays.copyOf(ids, numResultHolders);
+		}
 	}
 
 	private void initializeConfig(int myId, List<PreparePhase.Participant> participants) throws RuntimeException {
@@ -80,14 +384,22 @@ public class BgwEngine extends EngineControl {
 			}
 			String addr = ep.substring(0, sep);
 			// TODO verify if myId matches given address (possibly spoofing?)
-			// TODO verify availability of chosen port
+			// Availability of the local port is checked by the scheduler.
 			int port = Integer.parseUnsignedInt(ep.substring(sep + 1));
 			// Store party
 			l.fine("BgwEngine: party " + new Party(p.getSmcPeerID(), addr, port).toString());
 			parties.put(p.getSmcPeerID(), new Party(p.getSmcPeerID(), addr, port));
 		}
 
+		if (!parties.containsKey(myId)) {
+			throw new IllegalArgumentException("Own ID not among participants");
+		}
+
 		final Storage storage = new InMemoryStorage();
+		final EvaluationStrategy evalStrategy = this.evalStrategy;
+		// Share of the cores among the sessions running right now
+		final int threads = (scheduler != null) ? scheduler.threadsPerSession() : Env.getDefaultNoOfThreads();
+		l.fine("BgwEngine: evaluation strategy " + evalStrategy);
 
 		this.sceConf = new SCEConfiguration() {
 			@Override
@@ -112,17 +424,17 @@ public class BgwEngine extends EngineControl {
 
 			@Override
 			public int getNoOfThreads() {
-				return Env.getDefaultNoOfThreads();
+				return threads;
 			}
 
 			@Override
 			public int getNoOfVMThreads() {
-				return Env.getDefaultNoOfThreads();
+				return getNoOfThreads();
 			}
 
 			@Override
 			public ProtocolEvaluator getEvaluator() {
-				return new SequentialEvaluator();
+				return EvaluationStrategy.fromEnum(evalStrategy);
 			}
 
 			@Override
@@ -146,7 +458,14 @@ public class BgwEngine extends EngineControl {
 		};
 
 		// Initialize BGW suite configuration
-		this.suiteConf = new BgwSuite(sceConf);
+		this.suiteConf = (threshold >= 0) ? new BgwSuite(threshold, modulus) : new BgwSuite(sceConf, modulus);
+	}
+
+	/**
+	 * @return plans of all engines in this JVM
+	 */
+	public static PlanCache getPlanCache() {
+		return plans;
 	}
 
 	/**
@@ -158,44 +477,170 @@ public class BgwEngine extends EngineControl {
 	@Override
 	public void prepare(int myId, List<PreparePhase.Participant> participants) throws RuntimeException, IOException {
 		verifyTaskRequirements();
+		verifyParticipants(participants);
 		l.finer("Task verification done");
+
+		// Take a free session slot. A retried preparation keeps its slot.
+		admit();
 		
+		// Fetch and encode inputs here to keep them off the critical path.
+		for (Aggregation agg : aggregations) {
+			agg.inputs = fetchInputs(agg);
+		}
+		inputsFetched = true;
+		l.finer("Inputs fetched: " + aggregations.size() + " tasks");
+
+		// Drop any engine of a previous PREPARE attempt.
+		releaseLink(false);
+
 		initializeConfig(myId, participants);
-		this.smcEngine = SCEFactory.getSCEFromConfiguration(sceConf, suiteConf);
-		// XXX: allows to kill some nodes in a critical phase while debugging
-//		try {
-//			Thread.sleep(5000);
-//		} catch (InterruptedException e) {
-//			// TODO Auto-generated catch block
-//			e.printStackTrace();
-//		}
+		if (reuseLinks) {
+			topologyKey = PeerLinkCache.topologyKey(myId, participants) + "|" + evalStrategy + "|"
+					+ modulus + "|" + threshold;
+			// Reserve a cached link. The GW decides on its reuse for all peers
+			// in the linking phase.
+			cachedLink = linkCache.take(topologyKey);
+		}
+		if (cachedLink == null) {
+			createEngine();
+		}
 		l.fine("Initialize SCE prepare done");
 		
 		// Initialize all resources and network channels
 		// smcEngine.setup();
 	}
 	
+	/**
+	 * Reserves the local party port and creates a fresh SCE.
+	 */
+	private void createEngine() {
+		if (scheduler != null) {
+			portLease = leaseOwnPort(sceConf.getParties().get(sceConf.getMyId()).getPort());
+		}
+		Span span = tracer.start(Metrics.SCE_CREATE);
+		long start = System.nanoTime();
+		try {
+			this.smcEngine = SCEFactory.getSCEFromConfiguration(sceConf, suiteConf);
+		} finally {
+			span.end();
+		}
+		record(Metrics.SCE_CREATE, start);
+		if (reuseLinks) {
+			link = new PeerLinkCache.Link(sceConf, suiteConf, smcEngine, linkEpoch);
+		}
+	}
+
+	@Override
+	protected void describePrepared(CmdResult.Builder reply) {
+		if (cachedLink != null) {
+			reply.putMetadata(META_LINK_EPOCH, String.valueOf(cachedLink.epoch));
+		}
+	}
+
 	@Override
-	public void linkPeers() {
+	public void linkPeers(LinkingPhase p) {
+		if (cachedLink != null) {
+			PeerLinkCache.Link cached = cachedLink;
+			cachedLink = null;
+			if (p.getReuseEpoch() > 0 && p.getReuseEpoch() == cached.epoch) {
+				// Take over interconnected engine from a previous session.
+				this.sceConf = cached.sceConf;
+				this.suiteConf = cached.suiteConf;
+				this.smcEngine = cached.sce;
+				this.portLease = cached.portLease;
+				cached.portLease = null;
+				this.link = cached;
+				this.linked = true;
+				l.fine("Reusing peer links: " + topologyKey + ", epoch " + cached.epoch);
+				probeLink();
+			} else {
+				// Other peers do not hold the same link. All set up fresh ones.
+				l.fine("Peer links not confirmed for reuse: " + topologyKey);
+				cached.close();
+				createEngine();
+			}
+		}
+
 		// Do last preparation for Fresco application.
 		// Normally, loading the application is part of the Session phase.
 		// Putting it here renders the Session phase minimal with respect to
 		// overhead. This allows more precise measurements.
-		switch (this.task.getAggregator()) {
-		case SUM:
-			frescoApp = new Sum(sceConf);
-			break;
-
-		default:
-			// Should not reach this code. Normally checked in Prepare phase.
-			throw new SmcException("aggregator not supported", CmdResult.Status.ABORTED);
+		// Streams create an application per contribution instead.
+		if (!isStreaming()) {
+			List<Aggregation> aggs = aggregations;
+			AggregatorApplication[] apps = new AggregatorApplication[aggs.size()];
+			for (int i = 0; i < apps.length; i++) {
+				Aggregation agg = aggs.get(i);
+				agg.app = createApplication(agg);
+				agg.app.setResultHolders(resultHolders);
+				agg.app.setEncoding(agg.encoder, modulus);
+				apps[i] = agg.app;
+			}
+			// A batch shares the communication rounds of all its aggregations.
+			frescoApp = (apps.length == 1) ? apps[0] : new Batch(apps);
 		}
 		
 		// Connect all Fresco peers with each other.
+		if (linked) {
+			return;
+		}
+		Span span = tracer.start(Metrics.SCE_SETUP).set("parties", sceConf.getParties().size());
 		try {
+			long start = System.nanoTime();
 			smcEngine.setup();
+			record(Metrics.SCE_SETUP, start);
+			linked = true;
 		} catch (IOException e) {
+			span.set("error", e.getMessage());
 			throw new MPCException("Could not setup SMC peers: " + e.getMessage());
+		} finally {
+			span.end();
+		}
+	}
+
+	/**
+	 * Runs a minimal application over a reused link, so dead connections fail
+	 * here instead of in the session.
+	 */
+	private void probeLink() {
+		Sum probe = new Sum(sceConf, new BigInteger[] { BigInteger.ZERO });
+		Span span = tracer.start(Metrics.LINK_PROBE);
+		try {
+			long start = System.nanoTime();
+			smcEngine.runApplication(probe);
+			record(Metrics.LINK_PROBE, start);
+		} catch (RuntimeException e) {
+			span.set("error", e.getMessage());
+			link.markBroken();
+			throw new MPCException("Cached peer links failed liveness check: " + e.getMessage());
+		} finally {
+			span.end();
+		}
+	}
+
+	private AggregatorApplication createApplication(Aggregation agg) {
+		switch (agg.task.getAggregator()) {
+		case SUM:
+			return new Sum(sceConf, agg.inputs);
+
+		case AVG:
+			return new Avg(sceConf, agg.inputs);
+
+		case MEDIAN: {
+			final int numPeers = sceConf.getParties().size();
+			AggregatorPlan plan = plans.get(Aggregator.MEDIAN, numPeers, agg.domain, modulus);
+			if (plan == null) {
+				plan = plans.put(AggregatorPlan.median(numPeers, agg.domain, modulus));
+			}
+			return new Median(sceConf, agg.inputs, plan);
+		}
+
+		case STD_DEVIATION:
+			return new StdDeviation(sceConf, agg.inputs);
+
+		default:
+			// Should not reach this code. Normally checked in Prepare phase.
+			throw new SmcException("aggregator not supported", CmdResult.Status.ABORTED);
 		}
 	}
 
@@ -203,27 +648,274 @@ public class BgwEngine extends EngineControl {
 	public SMCResult runSession() {
 		// Interconnect peers here if LinkingPhase was not executed before.
 		if (frescoApp == null) {
-			linkPeers();
+			linkPeers(LinkingPhase.getDefaultInstance());
 		}
 		// Run loaded application.
 		l.finer("Start: smcEngine.runApplication");
-		smcEngine.runApplication(frescoApp);
+		List<Aggregation> aggs = aggregations;
+		Span span = tracer.start(Metrics.SCE_RUN).set("aggregator", task.getAggregator())
+				.set("vector_len", aggs.get(0).vectorLen).set("batch", aggs.size()).set("evaluator", evalStrategy);
+		try {
+			long start = System.nanoTime();
+			smcEngine.runApplication(frescoApp);
+			record(Metrics.SCE_RUN, start);
+		} catch (RuntimeException e) {
+			span.set("error", e.getMessage());
+			// Never hand out links with unknown state to other sessions.
+			if (link != null) {
+				link.markBroken();
+			}
+			throw e;
+		} finally {
+			span.end();
+		}
 		l.finer("Done: smcEngine.runApplication");
 		// SMC is done here, so fetch the result
-		OInt[] res = frescoApp.getResult();
-		l.info("Session done with result: " + res[0].getValue().toString());
+		span = tracer.start("output");
+		try {
+			SMCResult.Builder msg = toResult(aggs.get(0).app.getResultValues());
+			for (int i = 1; i < aggs.size(); i++) {
+				msg.addBatch(toResult(aggs.get(i).app.getResultValues()));
+			}
+			if (msg.getResVecCount() == 0) {
+				l.info("Session done, result only opened to peers " + Arrays.toString(resultHolders));
+			} else {
+				l.info("Session done with result: " + msg.getRes() + " (" + msg.getResVecCount() + " values, "
+						+ aggs.size() + " tasks)");
+			}
+			return msg.build();
+		} finally {
+			span.end();
+		}
+	}
+
+	@Override
+	public SMCResult runWindow(SessionPhase p) {
+		if (!linked) {
+			linkPeers(LinkingPhase.getDefaultInstance());
+		}
+		Aggregation agg = aggregations.get(0);
+		// Inputs of the first contribution were fetched during preparation.
+		if (!inputsFetched) {
+			try {
+				agg.inputs = fetchInputs(agg);
+			} catch (IOException e) {
+				throw new SmcException("input source failed: " + e.getMessage(), CmdResult.Status.ABORTED);
+			}
+		}
+		inputsFetched = false;
+
+		boolean close = p.getCloseWindow() || p.getLast();
+		StreamWindow app = new StreamWindow(sceConf, agg.inputs, windowSums, close);
+		app.setResultHolders(resultHolders);
+		app.setEncoding(agg.encoder, modulus);
+		Span span = tracer.start(Metrics.SCE_RUN).set("aggregator", task.getAggregator())
+				.set("vector_len", agg.vectorLen).set("window", windowContributions + 1).set("close", close);
+		try {
+			long start = System.nanoTime();
+			smcEngine.runApplication(app);
+			record(Metrics.SCE_RUN, start);
+		} catch (RuntimeException e) {
+			span.set("error", e.getMessage());
+			if (link != null) {
+				link.markBroken();
+			}
+			throw e;
+		} finally {
+			span.end();
+		}
+		windowContributions++;
+		if (!close) {
+			windowSums = app.getAccumulator();
+			return SMCResult.getDefaultInstance();
+		}
 
-		SMCResult msg = SMCResult.newBuilder().setRes(res[0].getValue().doubleValue()).build();
+		double[] res = app.getResultValues();
+		if (task.getAggregator() == Aggregator.AVG) {
+			// The number of contributions is public.
+			double count = (double) windowContributions * sceConf.getParties().size();
+			for (int i = 0; i < res.length; i++) {
+				res[i] /= count;
+			}
+		}
+		l.fine("Window closed after " + windowContributions + " contributions");
+		windowSums = null;
+		windowContributions = 0;
+		return toResult(res).build();
+	}
+
+	/**
+	 * @return the result message for the given values. It is empty if the
+	 *         values were not opened to this peer.
+	 */
+	private static SMCResult.Builder toResult(double[] res) {
+		SMCResult.Builder msg = SMCResult.newBuilder();
+		if (res.length > 0) {
+			msg.setRes(res[0]);
+		}
+		for (double r : res) {
+			msg.addResVec(r);
+		}
 		return msg;
 	}
 
-	public void stopAndInvalidate() {
+	private void record(String name, long start) {
+		if (metrics != null) {
+			metrics.recordSince(name, start);
+		}
+	}
+
+	/**
+	 * Reserves the local party port. An idle link of another topology still
+	 * holding the port is closed in favor of the new session.
+	 */
+	private SessionScheduler.PortLease leaseOwnPort(int port) {
+		try {
+			return scheduler.leasePort(port, true);
+		} catch (SmcException e) {
+			if (linkCache == null || !linkCache.evictPort(port)) {
+				throw e;
+			}
+			l.fine("Closed idle link holding port " + port);
+			return scheduler.leasePort(port, true);
+		}
+	}
+
+	/**
+	 * @return the encoded secret input vector of this peer for the given
+	 *         aggregation
+	 * @throws IOException
+	 *             if the data source fails
+	 */
+	private BigInteger[] fetchInputs(Aggregation agg) throws IOException {
+		BigInteger[] values = new BigInteger[agg.vectorLen];
+		// Availability was checked when verifying the task.
+		InputProvider src = inputs.get(agg.task.getSource());
+		src.read(values, agg.encoder);
+		return values;
+	}
+
+	/**
+	 * @return rough estimate of the heap used by the current session in
+	 *         bytes. Meant for accounting, not for exact limits.
+	 */
+	public long estimateMemory() {
+		long bytes = ENGINE_BYTES;
+		SCEConfiguration conf = this.sceConf;
+		if (conf == null) {
+			return bytes;
+		}
+		final int n = conf.getParties().size();
+		bytes += SCE_BYTES;
+		long shares = 0;
+		for (Aggregation agg : aggregations) {
+			shares += estimateShares(agg, n);
+		}
+		return bytes + shares * (SHARE_OVERHEAD_BYTES + modulus.bitLength() / 8);
+	}
+
+	/**
+	 * @return number of shares an aggregation holds among n parties
+	 */
+	private static long estimateShares(Aggregation agg, int n) {
+		// One share of each peer per element, more for multiplications.
+		switch (agg.task.getAggregator()) {
+		case MEDIAN:
+			// Thermometer encodings of all peers and the powers of their sums
+			return (long) agg.vectorLen * (agg.domain - 1) * (2 * n + 1);
+		case STD_DEVIATION:
+			// Values and their squares
+			return (long) agg.vectorLen * n * 2;
+		default:
+			return (long) agg.vectorLen * n;
+		}
+	}
+
+	@Override
+	public synchronized void abort() {
+		PeerLinkCache.Link link = this.link;
+		if (link != null) {
+			link.markBroken();
+		}
+		SCE sce = this.smcEngine;
+		if (sce != null) {
+			aborted = true;
+			// Closes all channels, so blocked reads of FRESCO fail.
+			sce.shutdownSCE();
+		}
+	}
+
+	/**
+	 * Hands over a session slot the caller took from the scheduler.
+	 * 
+	 * @return false if the engine does not need the slot, e.g. it was torn
+	 *         down meanwhile. The caller must give it back then.
+	 */
+	public synchronized boolean grantSlot() {
+		if (invalidated || admitted || scheduler == null) {
+			return false;
+		}
+		admitted = true;
+		return true;
+	}
+
+	public synchronized boolean isAdmitted() {
+		return admitted;
+	}
+
+	private synchronized void admit() throws SmcException {
+		if (invalidated) {
+			throw new SmcException("session already torn down", CmdResult.Status.ABORTED);
+		}
+		if (scheduler != null && !admitted) {
+			scheduler.admit();
+			admitted = true;
+		}
+	}
+
+	public synchronized void stopAndInvalidate() {
 		l.fine("Engine shutdown invoked...");
-		if (this.smcEngine != null) {
-			this.smcEngine.shutdownSCE();
+		invalidated = true;
+		releaseLink(isJobDone());
+		if (admitted) {
+			scheduler.leave();
+			admitted = false;
 		}
+		this.frescoApp = null;
 		this.suiteConf = null;
 		this.sceConf = null;
 	}
 
+	/**
+	 * Shuts down the current SCE or hands it over to the link cache.
+	 * 
+	 * @param keep
+	 *            if true, the links are kept for another session
+	 */
+	private synchronized void releaseLink(boolean keep) {
+		if (cachedLink != null) {
+			// Never used, so it is still fine for another session.
+			linkCache.put(topologyKey, cachedLink);
+			cachedLink = null;
+		}
+		if (link != null && keep && linked) {
+			// The idle link keeps the port reserved.
+			link.portLease = portLease;
+			linkCache.put(topologyKey, link);
+
+		} else {
+			if (this.smcEngine != null && !aborted) {
+				this.smcEngine.shutdownSCE();
+			}
+			if (portLease != null) {
+				portLease.release();
+			}
+		}
+		this.portLease = null;
+		this.smcEngine = null;
+		this.aborted = false;
+		this.link = null;
+		this.linked = false;
+	}
+
 }
@@ -1,11 +1,18 @@
 package de.tum.flexsmc.smc.engine;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import org.apache.commons.lang.ArrayUtils;
 
+import de.tum.flexsmc.smc.metrics.Metrics;
 import de.tum.flexsmc.smc.rpc.CmdResult;
 import de.tum.flexsmc.smc.rpc.PreparePhase;
 import de.tum.flexsmc.smc.rpc.SMCCmd;
@@ -16,6 +23,11 @@ import de.tum.flexsmc.smc.rpc.CmdResult.Status;
 import de.tum.flexsmc.smc.rpc.DebugPhase;
 import de.tum.flexsmc.smc.rpc.LinkingPhase;
 import de.tum.flexsmc.smc.rpc.SMCCmd.PayloadCase;
+import de.tum.flexsmc.smc.tracing.Span;
+import de.tum.flexsmc.smc.tracing.Tracer;
+import de.tum.flexsmc.smc.utils.TaskOptions;
+import io.grpc.Context;
+import io.grpc.Deadline;
 
 /**
  * Base engine controls the main flow based on incoming commands from the RPC
@@ -32,16 +44,58 @@ public abstract class EngineControl {
 	protected static final CmdResult errorInvalidTask = CmdResult.newBuilder().setMsg("Invalid task")
 			.setStatus(CmdResult.Status.DENIED).build();
 	
+	/**
+	 * Task option limiting each linking and session phase (or a fused phase
+	 * as a whole) in milliseconds. A shorter deadline of the RPC call takes
+	 * precedence.
+	 */
+	public static final String OPT_TIMEOUT_MS = "timeout_ms";
+	/**
+	 * Task option (dec 1) to keep the session open for a stream of
+	 * contributions. Each SESSION phase adds one, see {@link SessionPhase}.
+	 */
+	public static final String OPT_STREAM = "stream";
+	
+	// Single timer thread aborting overdue phases of all engines.
+	private static final ScheduledThreadPoolExecutor watchdog = new ScheduledThreadPoolExecutor(1,
+			new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "phase-watchdog");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+	static {
+		watchdog.setRemoveOnCancelPolicy(true);
+	}
+	
+	private static final EnumMap<PayloadCase, String> phaseNames = new EnumMap<>(PayloadCase.class);
+	static {
+		for (PayloadCase p : PayloadCase.values()) {
+			phaseNames.put(p, Metrics.PHASE_PREFIX + p.name().toLowerCase());
+		}
+	}
+	
 	protected SMCTask task;
+	// Limit of each linking and session phase in ms or 0 if unlimited. Set
+	// by the preparation.
+	protected long phaseTimeoutMs = 0;
+	// Further tasks of a batch job, empty for a single aggregation
+	protected List<SMCTask> batchTasks = Collections.emptyList();
+	// Measurements of this connector. Null if not measured.
+	protected final Metrics metrics;
+	protected final Tracer tracer;
 	
-	protected enum JobPhase {
+	public enum JobPhase {
 		NOT_INITIALIZED(0),
 		PREPARE_START(1),
 		PREPARE_FINISH(2),
 		LINKING_START(3),
 		LINKING_FINSIH(4),
 		SESSION_START(5),
-		SESSION_FINSIH(6);
+		SESSION_FINSIH(6),
+		WINDOW_FINISH(7);
 		
 		private final int value;
 
@@ -61,12 +115,28 @@ public abstract class EngineControl {
 		{JobPhase.PREPARE_START},															//< to: PREPARE_FINISH
 		{JobPhase.PREPARE_FINISH},															//< to: LINKING_START
 		{JobPhase.LINKING_START},															//< to: LINKING_FINSIH
-		{JobPhase.PREPARE_FINISH, JobPhase.LINKING_FINSIH},									//< to: SESSION_START
+		{JobPhase.PREPARE_FINISH, JobPhase.LINKING_FINSIH, JobPhase.WINDOW_FINISH},		//< to: SESSION_START
 		{JobPhase.SESSION_START},															//< to: SESSION_FINSIH
+		{JobPhase.SESSION_START},															//< to: WINDOW_FINISH
 	};
 	
 	private JobPhase phase = JobPhase.NOT_INITIALIZED;
 	
+	protected EngineControl() {
+		this(null, null);
+	}
+	
+	/**
+	 * @param metrics
+	 *            registry to record phase durations. May be null.
+	 * @param tracer
+	 *            tracer for spans of phases. May be null.
+	 */
+	protected EngineControl(Metrics metrics, Tracer tracer) {
+		this.metrics = metrics;
+		this.tracer = (tracer != null) ? tracer : Tracer.NOOP;
+	}
+	
 	protected synchronized void setPhase(JobPhase phase) {
 		this.phase = phase;
 	}
@@ -83,11 +153,193 @@ public abstract class EngineControl {
 		}
 	}
 	
+	public synchronized JobPhase getPhase() {
+		return this.phase;
+	}
+	
 	protected synchronized SMCTask getTask() {
 		return this.task;
 	}
 	
+	/**
+	 * @return true if no phase is currently running on this engine
+	 */
+	public synchronized boolean isIdle() {
+		return phase != JobPhase.PREPARE_START && phase != JobPhase.LINKING_START && phase != JobPhase.SESSION_START;
+	}
+	
+	/**
+	 * @return true if the session phase of the current job finished
+	 */
+	protected synchronized boolean isJobDone() {
+		return phase == JobPhase.SESSION_FINSIH;
+	}
+	
+	/**
+	 * @return true if the current job is a stream of SESSION phases
+	 */
+	protected synchronized boolean isStreaming() {
+		return task != null && TaskOptions.getInt(task, OPT_STREAM, 0) == 1;
+	}
+	
+	/**
+	 * Forgets the current job so the engine can run another one.
+	 */
+	protected synchronized void resetJob() {
+		this.phase = JobPhase.NOT_INITIALIZED;
+		this.task = null;
+		this.batchTasks = Collections.emptyList();
+	}
+	
 	public CmdResult runNextPhase(SMCCmd req) throws Exception {
+		if (metrics == null && !tracer.isEnabled()) {
+			return runWithDeadline(req);
+		}
+		String name = phaseNames.get(req.getPayloadCase());
+		Span span = tracer.start(name).set("session", req.getSessionID()).set("peer", req.getSmcPeerID());
+		long start = System.nanoTime();
+		CmdResult res = null;
+		try {
+			res = runWithDeadline(req);
+			return res;
+
+		} finally {
+			boolean ok = res != null
+					&& (res.getStatus() == Status.SUCCESS || res.getStatus() == Status.SUCCESS_DONE);
+			span.set("status", (res != null) ? res.getStatus() : "EXCEPTION").end();
+			if (metrics != null) {
+				metrics.recordSince(name, start);
+				if (!ok) {
+					metrics.count(name + Metrics.PHASE_ERRORS_SUFFIX);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Runs the phase under its deadline. An overdue phase is aborted via
+	 * {@link #abort()} and fails with ABORTED, even if it completed in the
+	 * meantime.
+	 */
+	private CmdResult runWithDeadline(SMCCmd req) throws Exception {
+		long timeout = phaseTimeoutMillis(req);
+		if (timeout <= 0) {
+			return dispatchPhase(req);
+		}
+		PhaseTimer timer = new PhaseTimer(phaseNames.get(req.getPayloadCase()), timeout);
+		timer.future = watchdog.schedule(timer, timeout, TimeUnit.MILLISECONDS);
+		CmdResult res;
+		try {
+			res = dispatchPhase(req);
+		} catch (Exception e) {
+			if (timer.stop()) {
+				throw timer.error();
+			}
+			throw e;
+		}
+		if (timer.stop()) {
+			throw timer.error();
+		}
+		return res;
+	}
+	
+	/**
+	 * @return time left for the phase in ms or 0 if it is unlimited
+	 */
+	private long phaseTimeoutMillis(SMCCmd req) {
+		long timeout;
+		switch (req.getPayloadCase()) {
+		case LINK:
+		case SESSION:
+			timeout = phaseTimeoutMs;
+			break;
+		case FUSED:
+			try {
+				timeout = parseTimeoutMillis(req.getFused().getPrepare().getSmcTask());
+			} catch (SmcException e) {
+				// Denied by the preparation within the phase
+				timeout = 0;
+			}
+			break;
+		default:
+			// Preparation has its own limits, e.g. admission.
+			return 0;
+		}
+		Deadline deadline = Context.current().getDeadline();
+		if (deadline != null) {
+			long left = Math.max(1, deadline.timeRemaining(TimeUnit.MILLISECONDS));
+			timeout = (timeout > 0) ? Math.min(timeout, left) : left;
+		}
+		return Math.max(0, timeout);
+	}
+	
+	/**
+	 * @return value of {@link #OPT_TIMEOUT_MS} or 0 if it is not set
+	 * @throws SmcException
+	 *             if the value is not a number of at least 0
+	 */
+	protected static long parseTimeoutMillis(SMCTask t) throws SmcException {
+		int timeout;
+		try {
+			timeout = TaskOptions.getInt(t, OPT_TIMEOUT_MS, 0);
+		} catch (NumberFormatException e) {
+			timeout = -1;
+		}
+		if (timeout < 0) {
+			throw new SmcException("invalid " + OPT_TIMEOUT_MS + ": " + TaskOptions.getString(t, OPT_TIMEOUT_MS, ""),
+					Status.DENIED);
+		}
+		return timeout;
+	}
+
+	/**
+	 * PhaseTimer aborts the engine once the deadline of the running phase
+	 * passes.
+	 */
+	private class PhaseTimer implements Runnable {
+		private final String name;
+		private final long timeout;
+		private ScheduledFuture<?> future;
+		private boolean done = false;
+		private boolean fired = false;
+
+		PhaseTimer(String name, long timeout) {
+			this.name = name;
+			this.timeout = timeout;
+		}
+
+		@Override
+		public void run() {
+			synchronized (this) {
+				if (done) {
+					return;
+				}
+				fired = true;
+			}
+			l.warning(name + " exceeded deadline of " + timeout + " ms, aborting");
+			if (metrics != null) {
+				metrics.count(name + Metrics.PHASE_TIMEOUTS_SUFFIX);
+			}
+			abort();
+		}
+
+		/**
+		 * @return true if the deadline passed before
+		 */
+		boolean stop() {
+			future.cancel(false);
+			synchronized (this) {
+				done = true;
+				return fired;
+			}
+		}
+
+		SmcException error() {
+			return new SmcException(name + " exceeded deadline of " + timeout + " ms", Status.ABORTED);
+		}
+	}
+	
+	private CmdResult dispatchPhase(SMCCmd req) throws Exception {
 		// Prepare reply
 		CmdResult.Builder reply = CmdResult.newBuilder().setStatus(Status.SUCCESS);
 		l.finer("Incoming phase: " + req.getPayloadCase().toString());
@@ -100,29 +352,7 @@ public abstract class EngineControl {
 			PreparePhase p = req.getPrepare();
 			l.fine("Prepare phase:" + p.getParticipantsCount());	
 
-			try {
-				// SMCTask must be set
-				SMCTask task = p.getSmcTask();
-				if (task == null) {
-					return errorInvalidTask;
-				}
-				this.task = task;
-				
-				// Start SMC preparation
-				prepare(req.getSmcPeerID(), p.getParticipantsList());
-				reply.setMsg("prep done");
-				setPhase(JobPhase.PREPARE_FINISH);
-				
-			} catch (SmcException e) {
-				// Only send error, but allow to recover. GW should reinit this phase.
-				reply = e.generateErrorMessage();
-				e.printStackTrace();
-				
-			} catch (Exception e) {
-				// Only send error, but allow to recover. GW should reinit this phase.
-				reply.setStatus(CmdResult.Status.DENIED).setMsg(e.getMessage());
-				e.printStackTrace();
-			}
+			reply = runPrepare(req.getSmcPeerID(), p);
 		}
 			break;
 			
@@ -132,7 +362,7 @@ public abstract class EngineControl {
 			
 			// In case of exception, just pass to caller function in stack.
 			// This generates an error message in RPCServer for the other side.
-			linkPeers();
+			linkPeers(req.getLink());
 			reply.setMsg("linking done").setStatus(Status.SUCCESS);
 			
 			validateSetPhase(JobPhase.LINKING_FINSIH);
@@ -145,6 +375,18 @@ public abstract class EngineControl {
 			SessionPhase p = req.getSession();
 			l.fine("Session phase");
 
+			if (isStreaming()) {
+				SMCResult wres = runWindow(p);
+				if (!p.getLast()) {
+					// Session stays open for further contributions.
+					reply.setMsg("window done").setResult(wres).setStatus(Status.SUCCESS);
+					setPhase(JobPhase.WINDOW_FINISH);
+					break;
+				}
+				reply.setMsg("stream done").setResult(wres).setStatus(Status.SUCCESS_DONE);
+				setPhase(JobPhase.SESSION_FINSIH);
+				break;
+			}
 			SMCResult res = runSession();
 			// Note: exceptions are thrown in case of irrevesible errors. If not handled here,
 			// RPCServer generates and send a error message.
@@ -154,6 +396,37 @@ public abstract class EngineControl {
 			setPhase(JobPhase.SESSION_FINSIH);
 			break;
 			
+		case FUSED: {
+			// Prepare, link and run the session in one go. No barrier among
+			// the peers is needed in between.
+			PreparePhase fp = req.getFused().getPrepare();
+			if (TaskOptions.getInt(fp.getSmcTask(), OPT_STREAM, 0) == 1) {
+				return CmdResult.newBuilder().setMsg("streaming requires separate phases")
+						.setStatus(Status.DENIED).build();
+			}
+			validateSetPhase(JobPhase.PREPARE_START);
+
+			l.fine("Fused phase:" + fp.getParticipantsCount());
+
+			reply = runPrepare(req.getSmcPeerID(), fp);
+			if (reply.getStatus() != Status.SUCCESS) {
+				// Recoverable as for PREPARE. GW may retry this phase.
+				break;
+			}
+			// From here on, same semantics as LINK and SESSION: exceptions are
+			// irreversible and passed to the caller.
+			validateSetPhase(JobPhase.LINKING_START);
+			linkPeers(LinkingPhase.getDefaultInstance());
+			validateSetPhase(JobPhase.LINKING_FINSIH);
+
+			validateSetPhase(JobPhase.SESSION_START);
+			SMCResult fres = runSession();
+			reply.setMsg("fused done").setResult(fres).setStatus(Status.SUCCESS_DONE);
+
+			setPhase(JobPhase.SESSION_FINSIH);
+			break;
+		}
+			
 		case DEBUG: {
 			DebugPhase dp = req.getDebug();
 			Status msgStatus = Status.SUCCESS_DONE;
@@ -177,11 +450,72 @@ public abstract class EngineControl {
 		return reply.build();
 	}
 	
+	/**
+	 * Runs the preparation. Errors are reported in the reply so the GW can
+	 * retry the preparation.
+	 */
+	private CmdResult.Builder runPrepare(int myId, PreparePhase p) {
+		CmdResult.Builder reply = CmdResult.newBuilder().setStatus(Status.SUCCESS);
+		try {
+			// SMCTask must be set
+			SMCTask task = p.getSmcTask();
+			if (task == null) {
+				return errorInvalidTask.toBuilder();
+			}
+			this.task = task;
+			this.batchTasks = p.getBatchTasksList();
+			
+			// Start SMC preparation
+			prepare(myId, p.getParticipantsList());
+			reply.setMsg("prep done");
+			describePrepared(reply);
+			setPhase(JobPhase.PREPARE_FINISH);
+			
+		} catch (SmcException e) {
+			// Only send error, but allow to recover. GW should reinit this phase.
+			reply = e.generateErrorMessage();
+			e.printStackTrace();
+			
+		} catch (Exception e) {
+			// Only send error, but allow to recover. GW should reinit this phase.
+			reply.setStatus(CmdResult.Status.DENIED).setMsg(e.getMessage());
+			e.printStackTrace();
+		}
+		return reply;
+	}
+	
 	public abstract void prepare(int myId, List<PreparePhase.Participant> participants) throws RuntimeException, IOException;
 	
-	public abstract void linkPeers();
+	/**
+	 * Adds details of a successful preparation to its reply, e.g. the epoch
+	 * of a reusable peer link. Does nothing by default.
+	 */
+	protected void describePrepared(CmdResult.Builder reply) {
+	}
+	
+	/**
+	 * @param p
+	 *            linking decisions of the GW. The default instance sets up
+	 *            fresh links.
+	 */
+	public abstract void linkPeers(LinkingPhase p);
 	
 	public abstract SMCResult runSession();
 	
+	/**
+	 * Adds a contribution to the window of a streaming job.
+	 * 
+	 * @return the aggregate if the window was closed. Otherwise, an empty
+	 *         result.
+	 */
+	public abstract SMCResult runWindow(SessionPhase p);
+	
 	public abstract void stopAndInvalidate();
+	
+	/**
+	 * Unblocks a running phase, e.g. by closing all peer connections. Called
+	 * from another thread. The phase is expected to fail afterwards and the
+	 * session is torn down as usual.
+	 */
+	public abstract void abort();
 }
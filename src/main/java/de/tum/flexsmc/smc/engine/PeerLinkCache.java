@@ -0,0 +1,300 @@
+package de.tum.flexsmc.smc.engine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import de.tum.flexsmc.smc.rpc.PreparePhase;
+import dk.alexandra.fresco.framework.sce.SCE;
+import dk.alexandra.fresco.framework.sce.configuration.ProtocolSuiteConfiguration;
+import dk.alexandra.fresco.framework.sce.configuration.SCEConfiguration;
+
+/**
+ * PeerLinkCache keeps interconnected FRESCO engines alive after a session
+ * finished. A following session with the same participant topology takes
+ * over the established links and skips the whole peer setup.
+ * 
+ * All peers of a job must agree on reusing links. Otherwise, one side waits
+ * for a connection the other side never opens. Eviction is a local decision
+ * of each peer, so the cache alone cannot guarantee this. Instead, each link
+ * carries the epoch the GW assigned to the job which set it up. Peers report
+ * the epoch of their cached link when preparing and the GW confirms it for
+ * the linking phase only if all of them hold the same one. A link which saw
+ * any error is never cached again.
+ *
+ */
+public class PeerLinkCache {
+	private static final Logger l = Logger.getLogger(PeerLinkCache.class.getName());
+
+	public static final long DEFAULT_MAX_IDLE_MS = 60 * 1000;
+	public static final int DEFAULT_CAPACITY = 16;
+
+	/**
+	 * Link bundles an interconnected SCE with the configuration it was built
+	 * from.
+	 */
+	public static class Link {
+		final SCEConfiguration sceConf;
+		final ProtocolSuiteConfiguration suiteConf;
+		final SCE sce;
+		final int epoch;
+		// Local party port kept reserved while the link is alive.
+		SessionScheduler.PortLease portLease;
+
+		private volatile boolean broken = false;
+		private long lastUsed;
+
+		Link(SCEConfiguration sceConf, ProtocolSuiteConfiguration suiteConf, SCE sce, int epoch) {
+			this.sceConf = sceConf;
+			this.suiteConf = suiteConf;
+			this.sce = sce;
+			this.epoch = epoch;
+			this.lastUsed = System.currentTimeMillis();
+		}
+
+		/**
+		 * Marks a link as unusable, e.g. due to failed communication.
+		 */
+		void markBroken() {
+			broken = true;
+		}
+
+		boolean isBroken() {
+			return broken;
+		}
+
+		void close() {
+			try {
+				sce.shutdownSCE();
+			} finally {
+				if (portLease != null) {
+					portLease.release();
+				}
+			}
+		}
+	}
+
+	private final long maxIdleMs;
+	private final int capacity;
+	// Idle links by topology key. Insertion order equals age.
+	private final LinkedHashMap<String, Link> idle = new LinkedHashMap<>();
+	private final ScheduledExecutorService evictor;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	public PeerLinkCache() {
+		this(DEFAULT_CAPACITY, DEFAULT_MAX_IDLE_MS);
+	}
+
+	public PeerLinkCache(int capacity, long maxIdleMs) {
+		this.capacity = capacity;
+		this.maxIdleMs = maxIdleMs;
+		this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "peer-link-evictor");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		long period = Math.max(1, maxIdleMs / 4);
+		evictor.scheduleAtFixedRate(new Runnable() {
+			@Override
+			public void run() {
+				evictIdle();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Generates the key identifying a participant topology from the view of
+	 * the local peer. Further parameters influencing the SCE (e.g. evaluation
+	 * strategy) are appended by the caller.
+	 */
+	public static String topologyKey(int myId, List<PreparePhase.Participant> participants) {
+		List<PreparePhase.Participant> sorted = new ArrayList<>(participants);
+		Collections.sort(sorted, new Comparator<PreparePhase.Participant>() {
+			@Override
+			public int compare(PreparePhase.Participant a, PreparePhase.Participant b) {
+				return Integer.compare(a.getSmcPeerID(), b.getSmcPeerID());
+			}
+		});
+		StringBuilder key = new StringBuilder().append(myId);
+		for (PreparePhase.Participant p : sorted) {
+			key.append('|').append(p.getSmcPeerID()).append('@').append(p.getEndpoint());
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Takes a healthy link for the given topology out of the cache.
+	 * 
+	 * @return null if there is no reusable link
+	 */
+	public Link take(String key) {
+		Link link;
+		synchronized (this) {
+			link = idle.remove(key);
+		}
+		if (link == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		if (!isHealthy(link, System.currentTimeMillis())) {
+			l.fine("Dropping unhealthy link: " + key);
+			closeQuietly(link);
+			evictions.incrementAndGet();
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return link;
+	}
+
+	/**
+	 * Hands back a link after a successful session. Broken links and links
+	 * which exceed the capacity are closed.
+	 */
+	public void put(String key, Link link) {
+		if (link.isBroken()) {
+			closeQuietly(link);
+			return;
+		}
+		link.lastUsed = System.currentTimeMillis();
+
+		List<Link> surplus = new ArrayList<>(1);
+		synchronized (this) {
+			Link old = idle.remove(key);
+			if (old != null) {
+				surplus.add(old);
+			}
+			idle.put(key, link);
+			// Evict oldest links first
+			while (idle.size() > capacity) {
+				String oldest = idle.keySet().iterator().next();
+				surplus.add(idle.remove(oldest));
+			}
+		}
+		for (Link s : surplus) {
+			closeQuietly(s);
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Closes all idle links exceeding the maximum idle time.
+	 */
+	public void evictIdle() {
+		long now = System.currentTimeMillis();
+		List<Link> expired = new ArrayList<>();
+		synchronized (this) {
+			for (Iterator<Map.Entry<String, Link>> it = idle.entrySet().iterator(); it.hasNext();) {
+				Map.Entry<String, Link> e = it.next();
+				if (!isHealthy(e.getValue(), now)) {
+					expired.add(e.getValue());
+					it.remove();
+				}
+			}
+		}
+		for (Link link : expired) {
+			closeQuietly(link);
+			evictions.incrementAndGet();
+		}
+		if (!expired.isEmpty()) {
+			l.fine("Evicted idle links: " + expired.size());
+		}
+	}
+
+	/**
+	 * Closes all idle links holding the given local party port.
+	 * 
+	 * @return true if any link was closed
+	 */
+	public boolean evictPort(int port) {
+		List<Link> holders = new ArrayList<>(1);
+		synchronized (this) {
+			for (Iterator<Link> it = idle.values().iterator(); it.hasNext();) {
+				Link link = it.next();
+				if (link.portLease != null && link.portLease.getPort() == port) {
+					holders.add(link);
+					it.remove();
+				}
+			}
+		}
+		for (Link link : holders) {
+			closeQuietly(link);
+			evictions.incrementAndGet();
+		}
+		return !holders.isEmpty();
+	}
+
+	/**
+	 * Closes all idle links.
+	 */
+	public void clear() {
+		List<Link> all;
+		synchronized (this) {
+			all = new ArrayList<>(idle.values());
+			idle.clear();
+		}
+		for (Link link : all) {
+			closeQuietly(link);
+		}
+	}
+
+	/**
+	 * Closes all idle links and stops the evictor. The cache must not be used
+	 * afterwards.
+	 */
+	public void close() {
+		clear();
+		evictor.shutdownNow();
+	}
+
+	private boolean isHealthy(Link link, long now) {
+		return !link.isBroken() && (now - link.lastUsed) < maxIdleMs;
+	}
+
+	private void closeQuietly(Link link) {
+		try {
+			link.close();
+		} catch (RuntimeException e) {
+			l.warning("Closing peer link failed: " + e.getMessage());
+		}
+	}
+
+	public synchronized int getIdleCount() {
+		return idle.size();
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return "PeerLinkCache [idle=" + getIdleCount() + ", hits=" + getHits() + ", misses=" + getMisses()
+				+ ", evictions=" + getEvictions() + "]";
+	}
+
+}
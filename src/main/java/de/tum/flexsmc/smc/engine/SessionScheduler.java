@@ -0,0 +1,251 @@
+package de.tum.flexsmc.smc.engine;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import de.tum.flexsmc.smc.rpc.CmdResult;
+import de.tum.flexsmc.smc.utils.Env;
+
+/**
+ * SessionScheduler coordinates all SMC sessions of this connector. It limits
+ * the number of concurrently running sessions, manages the local party ports
+ * and splits a global thread budget evenly among the running sessions.
+ *
+ * Admission never blocks, since phases run on the shared session executor.
+ * Preparations beyond the limit wait in a bounded queue outside of it and are
+ * admitted in arrival order as slots are freed. If the queue is full, they are
+ * denied and the GW may retry.
+ *
+ */
+public class SessionScheduler {
+	private static final Logger l = Logger.getLogger(SessionScheduler.class.getName());
+
+	public static final int DEFAULT_MAX_SESSIONS = 8;
+	// Waiting sessions per slot
+	public static final int QUEUE_FACTOR = 4;
+
+	/**
+	 * PortLease reserves a local party port. It is either held by a running
+	 * session or by an idle link in the {@link PeerLinkCache}.
+	 */
+	public final class PortLease {
+		private final int port;
+		private boolean released = false;
+
+		private PortLease(int port) {
+			this.port = port;
+		}
+
+		public int getPort() {
+			return port;
+		}
+
+		/**
+		 * Returns the port to the scheduler. Releasing twice has no effect.
+		 */
+		public void release() {
+			synchronized (leasedPorts) {
+				if (released) {
+					return;
+				}
+				released = true;
+				leasedPorts.remove(port);
+			}
+		}
+	}
+
+	private final int minPort;
+	private final int maxPort;
+	private final int maxSessions;
+	private final int threadBudget;
+	private final Set<Integer> leasedPorts = new HashSet<>();
+	// Guarded by this
+	private final ArrayDeque<Runnable> waiting = new ArrayDeque<>();
+	private int active = 0;
+	private long admitted = 0;
+	private long queued = 0;
+	private long denied = 0;
+
+	private final AtomicLong portConflicts = new AtomicLong();
+
+	public SessionScheduler() {
+		this(DEFAULT_MAX_SESSIONS, 0, 0);
+	}
+
+	/**
+	 * @param minPort
+	 *            lowest local party port accepted. If 0, any port is accepted.
+	 * @param maxPort
+	 *            highest local party port accepted
+	 */
+	public SessionScheduler(int maxSessions, int minPort, int maxPort) {
+		if (maxSessions < 1) {
+			throw new IllegalArgumentException("Invalid session limit: " + maxSessions);
+		}
+		if (minPort != 0 && (minPort < 1 || maxPort > 65535 || minPort > maxPort)) {
+			throw new IllegalArgumentException("Invalid port range: " + minPort + "-" + maxPort);
+		}
+		this.maxSessions = maxSessions;
+		this.minPort = minPort;
+		this.maxPort = maxPort;
+		this.threadBudget = Env.getDefaultNoOfThreads();
+	}
+
+	/**
+	 * Takes a free session slot without waiting. Sessions already waiting for
+	 * a slot go first. Each successful call must be followed by
+	 * {@link #leave()}.
+	 *
+	 * @throws SmcException
+	 *             if all slots are taken
+	 */
+	public synchronized void admit() throws SmcException {
+		if (active >= maxSessions || !waiting.isEmpty()) {
+			denied++;
+			throw new SmcException("connector busy: " + maxSessions + " sessions running, retry later",
+					CmdResult.Status.DENIED);
+		}
+		active++;
+		admitted++;
+	}
+
+	/**
+	 * Takes a session slot as soon as one is free. Sessions are admitted in
+	 * arrival order. onAdmitted runs once the slot is taken, either right
+	 * away or on the thread calling {@link #leave()}, so it must not block.
+	 * It owns the slot and must hand it back via {@link #leave()}.
+	 *
+	 * @return false if the queue is full. The session is neither admitted nor
+	 *         queued then.
+	 */
+	public boolean admitLater(Runnable onAdmitted) {
+		synchronized (this) {
+			if (active >= maxSessions || !waiting.isEmpty()) {
+				if (waiting.size() >= QUEUE_FACTOR * maxSessions) {
+					return false;
+				}
+				waiting.add(onAdmitted);
+				queued++;
+				return true;
+			}
+			active++;
+			admitted++;
+		}
+		onAdmitted.run();
+		return true;
+	}
+
+	/**
+	 * Frees a session slot. If sessions are waiting, the slot is handed over
+	 * to the first of them.
+	 */
+	public void leave() {
+		Runnable next;
+		synchronized (this) {
+			next = waiting.poll();
+			if (next == null) {
+				active--;
+				return;
+			}
+			admitted++;
+		}
+		next.run();
+	}
+
+	/**
+	 * Reserves the local party port chosen by the GW.
+	 *
+	 * @param checkBind
+	 *            verify that the port can be bound on this host
+	 * @throws SmcException
+	 *             if the port is out of range, already used by another session
+	 *             or not available on this host
+	 */
+	public PortLease leasePort(int port, boolean checkBind) throws SmcException {
+		if (minPort != 0 && (port < minPort || port > maxPort)) {
+			portConflicts.incrementAndGet();
+			throw new SmcException("port " + port + " outside of range " + minPort + "-" + maxPort,
+					CmdResult.Status.DENIED);
+		}
+		synchronized (leasedPorts) {
+			if (!leasedPorts.add(port)) {
+				portConflicts.incrementAndGet();
+				throw new SmcException("port " + port + " used by another session", CmdResult.Status.DENIED);
+			}
+		}
+		PortLease lease = new PortLease(port);
+		if (checkBind && !isBindable(port)) {
+			lease.release();
+			portConflicts.incrementAndGet();
+			throw new SmcException("port " + port + " not available", CmdResult.Status.DENIED);
+		}
+		return lease;
+	}
+
+	/**
+	 * Best effort check. The port might still be taken by another process
+	 * before FRESCO binds it.
+	 */
+	private static boolean isBindable(int port) {
+		try (ServerSocket s = new ServerSocket()) {
+			s.setReuseAddress(true);
+			s.bind(new InetSocketAddress(port));
+			return true;
+		} catch (IOException e) {
+			l.fine("Port " + port + " not bindable: " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * @return number of threads a session created now may use for evaluation,
+	 *         i.e. an even share of the budget among all running sessions. A
+	 *         lone session gets the whole budget, each session at least one
+	 *         thread.
+	 */
+	public synchronized int threadsPerSession() {
+		return Math.max(1, threadBudget / Math.max(1, active));
+	}
+
+	public synchronized int getActiveSessions() {
+		return active;
+	}
+
+	public synchronized int getWaitingSessions() {
+		return waiting.size();
+	}
+
+	public int getMaxSessions() {
+		return maxSessions;
+	}
+
+	public synchronized long getAdmitted() {
+		return admitted;
+	}
+
+	public synchronized long getQueued() {
+		return queued;
+	}
+
+	public synchronized long getDenied() {
+		return denied;
+	}
+
+	public long getPortConflicts() {
+		return portConflicts.get();
+	}
+
+	@Override
+	public String toString() {
+		return "SessionScheduler [active=" + getActiveSessions() + "/" + maxSessions + ", waiting="
+				+ getWaitingSessions() + ", admitted=" + getAdmitted() + ", queued=" + getQueued() + ", denied="
+				+ getDenied() + ", portConflicts=" + getPortConflicts() + "]";
+	}
+
+}
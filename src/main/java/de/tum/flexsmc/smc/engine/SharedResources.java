@@ -0,0 +1,80 @@
+package de.tum.flexsmc.smc.engine;
+
+import de.tum.flexsmc.smc.input.InputRegistry;
+import de.tum.flexsmc.smc.metrics.Metrics;
+import de.tum.flexsmc.smc.tracing.Tracer;
+
+/**
+ * SharedResources bundles the connector-wide facilities all engines have
+ * access to. Any of them may be null if the feature is not used.
+ *
+ */
+public class SharedResources {
+	private final PeerLinkCache linkCache;
+	private final InputRegistry inputs;
+	private final SessionScheduler scheduler;
+	private final Metrics metrics;
+	private final Tracer tracer;
+
+	/**
+	 * @param scheduler
+	 *            admission and port management for all sessions. If null,
+	 *            sessions are not limited.
+	 * @param metrics
+	 *            registry for measurements of all engines. If null, nothing is
+	 *            measured.
+	 * @param tracer
+	 *            tracer for spans of all engines. If null, nothing is traced.
+	 */
+	public SharedResources(PeerLinkCache linkCache, InputRegistry inputs, SessionScheduler scheduler,
+			Metrics metrics, Tracer tracer) {
+		this.linkCache = linkCache;
+		this.inputs = inputs;
+		this.scheduler = scheduler;
+		this.metrics = metrics;
+		this.tracer = tracer;
+	}
+
+	/**
+	 * @return shared resources with all features disabled
+	 */
+	public static SharedResources none() {
+		return new SharedResources(null, null, null, null, null);
+	}
+
+	public PeerLinkCache getLinkCache() {
+		return linkCache;
+	}
+
+	public InputRegistry getInputs() {
+		return inputs;
+	}
+
+	public SessionScheduler getScheduler() {
+		return scheduler;
+	}
+
+	public Metrics getMetrics() {
+		return metrics;
+	}
+
+	public Tracer getTracer() {
+		return tracer;
+	}
+
+	/**
+	 * Releases all resources held by the shared facilities.
+	 */
+	public void close() {
+		if (linkCache != null) {
+			linkCache.close();
+		}
+		if (inputs != null) {
+			inputs.closeAll();
+		}
+		if (tracer != null) {
+			tracer.close();
+		}
+	}
+
+}
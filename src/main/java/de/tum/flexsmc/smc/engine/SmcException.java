@@ -7,7 +7,7 @@ public class SmcException extends RuntimeException {
 	
 	private CmdResult.Status cmdStatus;
 	
-	protected SmcException(String message, CmdResult.Status status) {
+	public SmcException(String message, CmdResult.Status status) {
 		super(message);
 		this.cmdStatus = status;
 	}
@@ -0,0 +1,51 @@
+package de.tum.flexsmc.smc.input;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * FileInputProvider streams readings from a text file with one value per
+ * line. Empty lines and lines starting with '#' are skipped. Each read
+ * continues where the previous one stopped.
+ *
+ */
+public class FileInputProvider implements InputProvider {
+	private final Path path;
+	private final BufferedReader reader;
+
+	public FileInputProvider(Path path) throws IOException {
+		this.path = path;
+		this.reader = Files.newBufferedReader(path, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	public synchronized void read(BigInteger[] dst, ValueEncoder enc) throws IOException {
+		int i = 0;
+		while (i < dst.length) {
+			String line = reader.readLine();
+			if (line == null) {
+				throw new EOFException("Not enough values in " + path + ": got " + i + " of " + dst.length);
+			}
+			line = line.trim();
+			if (line.isEmpty() || line.startsWith("#")) {
+				continue;
+			}
+			try {
+				dst[i++] = enc.encode(Double.parseDouble(line));
+			} catch (NumberFormatException e) {
+				throw new IOException("Invalid value in " + path + ": " + line);
+			}
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		reader.close();
+	}
+
+}
@@ -0,0 +1,24 @@
+package de.tum.flexsmc.smc.input;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigInteger;
+
+/**
+ * InputProvider delivers the local secret inputs of a data source. Values are
+ * read in bounded chunks and encoded into field elements right away, so a
+ * source is never loaded as a whole.
+ *
+ */
+public interface InputProvider extends Closeable {
+
+	/**
+	 * Fills dst with the next values of the source. Blocks until enough values
+	 * are available.
+	 * 
+	 * @throws IOException
+	 *             if the source cannot deliver dst.length values
+	 */
+	void read(BigInteger[] dst, ValueEncoder enc) throws IOException;
+
+}
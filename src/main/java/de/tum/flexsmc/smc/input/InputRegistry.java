@@ -0,0 +1,96 @@
+package de.tum.flexsmc.smc.input;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import de.tum.flexsmc.smc.rpc.DataOrigin;
+
+/**
+ * InputRegistry maps the data origin of a task to the local source providing
+ * the secret input values.
+ *
+ */
+public class InputRegistry {
+	private static final Logger l = Logger.getLogger(InputRegistry.class.getName());
+
+	private final ConcurrentHashMap<DataOrigin, InputProvider> providers = new ConcurrentHashMap<>();
+
+	public void register(DataOrigin origin, InputProvider provider) {
+		InputProvider old = providers.put(origin, provider);
+		if (old != null) {
+			closeQuietly(old);
+		}
+		l.info("Input source registered for " + origin);
+	}
+
+	/**
+	 * Registers a source given as "ORIGIN=URI", e.g. "TEMPERATURE=file:/tmp/t.txt".
+	 * 
+	 * @see #fromUri(String)
+	 */
+	public void register(String spec) throws IOException {
+		int sep = spec.indexOf('=');
+		if (sep < 0) {
+			throw new IllegalArgumentException("Invalid input source: " + spec);
+		}
+		DataOrigin origin = DataOrigin.valueOf(spec.substring(0, sep).trim().toUpperCase());
+		register(origin, fromUri(spec.substring(sep + 1).trim()));
+	}
+
+	/**
+	 * @return the provider for the given origin or null if there is none
+	 */
+	public InputProvider get(DataOrigin origin) {
+		return providers.get(origin);
+	}
+
+	public void closeAll() {
+		for (DataOrigin origin : providers.keySet()) {
+			InputProvider p = providers.remove(origin);
+			if (p != null) {
+				closeQuietly(p);
+			}
+		}
+	}
+
+	/**
+	 * Creates a provider from an URI. Supported schemes:
+	 * <ul>
+	 * <li>file:/path - text file with one value per line</li>
+	 * <li>mmap:/path - memory-mapped ring buffer</li>
+	 * <li>tcp://host:port - socket sending one value per line</li>
+	 * </ul>
+	 */
+	public static InputProvider fromUri(String uri) throws IOException {
+		try {
+			URI u = new URI(uri);
+			String scheme = u.getScheme();
+			if ("file".equals(scheme)) {
+				return new FileInputProvider(Paths.get(u.getPath()));
+
+			} else if ("mmap".equals(scheme)) {
+				return new RingBufferInputProvider(Paths.get(u.getPath()));
+
+			} else if ("tcp".equals(scheme)) {
+				return new SocketInputProvider(new InetSocketAddress(u.getHost(), u.getPort()));
+			}
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException("Invalid input source URI: " + uri);
+		}
+		throw new IllegalArgumentException("Unsupported input source: " + uri);
+	}
+
+	private static void closeQuietly(InputProvider p) {
+		try {
+			p.close();
+		} catch (IOException e) {
+			l.warning("Closing input source failed: " + e.getMessage());
+		}
+	}
+
+}
@@ -0,0 +1,68 @@
+package de.tum.flexsmc.smc.input;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * RingBufferInputProvider reads the latest readings from a memory-mapped ring
+ * buffer which is filled by a local sensor process.
+ * 
+ * Layout (big endian): int capacity, long total number of values written so
+ * far, followed by capacity double slots. Value number k is stored in slot
+ * k % capacity. The writer updates the counter after writing the slot.
+ *
+ */
+public class RingBufferInputProvider implements InputProvider {
+	static final int HEADER_SIZE = 4 + 8;
+
+	private final Path path;
+	private final FileChannel channel;
+	private final MappedByteBuffer buf;
+	private final int capacity;
+
+	public RingBufferInputProvider(Path path) throws IOException {
+		this.path = path;
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		this.buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		if (buf.capacity() < HEADER_SIZE) {
+			throw new IOException("Invalid ring buffer: " + path);
+		}
+		this.capacity = buf.getInt(0);
+		if (capacity < 1 || buf.capacity() < HEADER_SIZE + 8L * capacity) {
+			throw new IOException("Invalid ring buffer capacity: " + path);
+		}
+	}
+
+	/**
+	 * Fills dst with the most recent values, oldest first.
+	 */
+	@Override
+	public synchronized void read(BigInteger[] dst, ValueEncoder enc) throws IOException {
+		if (dst.length > capacity) {
+			throw new IOException("Ring buffer " + path + " holds only " + capacity + " values");
+		}
+		long written = buf.getLong(4);
+		if (written < dst.length) {
+			throw new IOException("Not enough values in ring buffer " + path + ": " + written);
+		}
+		long first = written - dst.length;
+		for (int i = 0; i < dst.length; i++) {
+			int slot = (int) ((first + i) % capacity);
+			dst[i] = enc.encode(buf.getDouble(HEADER_SIZE + 8 * slot));
+		}
+		// The writer may have overtaken us meanwhile.
+		if (buf.getLong(4) - first > capacity) {
+			throw new IOException("Ring buffer " + path + " overrun while reading");
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		channel.close();
+	}
+
+}
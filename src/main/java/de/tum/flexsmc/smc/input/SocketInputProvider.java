@@ -0,0 +1,65 @@
+package de.tum.flexsmc.smc.input;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * SocketInputProvider streams readings from a local TCP source which sends one
+ * value per line. The connection is opened lazily and reopened after errors.
+ *
+ */
+public class SocketInputProvider implements InputProvider {
+	public static final int CONNECT_TIMEOUT_MS = 2000;
+	public static final int READ_TIMEOUT_MS = 10000;
+
+	private final InetSocketAddress addr;
+	private Socket socket;
+	private BufferedReader reader;
+
+	public SocketInputProvider(InetSocketAddress addr) {
+		this.addr = addr;
+	}
+
+	@Override
+	public synchronized void read(BigInteger[] dst, ValueEncoder enc) throws IOException {
+		try {
+			if (socket == null) {
+				socket = new Socket();
+				socket.connect(addr, CONNECT_TIMEOUT_MS);
+				socket.setSoTimeout(READ_TIMEOUT_MS);
+				reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+			}
+			int i = 0;
+			while (i < dst.length) {
+				String line = reader.readLine();
+				if (line == null) {
+					throw new EOFException("Input stream " + addr + " closed");
+				}
+				line = line.trim();
+				if (!line.isEmpty()) {
+					dst[i++] = enc.encode(Double.parseDouble(line));
+				}
+			}
+
+		} catch (IOException | NumberFormatException e) {
+			close();
+			throw new IOException("Reading from " + addr + " failed: " + e.getMessage(), e);
+		}
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (socket != null) {
+			socket.close();
+		}
+		socket = null;
+		reader = null;
+	}
+
+}
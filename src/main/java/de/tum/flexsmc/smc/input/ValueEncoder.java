@@ -0,0 +1,68 @@
+package de.tum.flexsmc.smc.input;
+
+import java.math.BigInteger;
+
+import de.tum.flexsmc.smc.engine.SmcException;
+import de.tum.flexsmc.smc.rpc.CmdResult;
+
+/**
+ * ValueEncoder maps raw sensor readings to integers suitable as field
+ * elements. Fractional readings are kept as fixed-point numbers scaled by a
+ * constant factor. Negative readings are represented by the upper half of the
+ * field.
+ *
+ */
+public class ValueEncoder {
+	public static final ValueEncoder IDENTITY = new ValueEncoder(1);
+
+	private final long scale;
+
+	/**
+	 * @param scale
+	 *            factor applied to each reading before rounding
+	 */
+	public ValueEncoder(long scale) {
+		if (scale < 1) {
+			throw new IllegalArgumentException("Scale must be positive");
+		}
+		this.scale = scale;
+	}
+
+	/**
+	 * @throws SmcException
+	 *             if the reading is not finite or too large for the scale
+	 */
+	public BigInteger encode(double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value) || Math.abs(value) > Long.MAX_VALUE / scale) {
+			throw new SmcException("input value out of range: " + value, CmdResult.Status.ABORTED);
+		}
+		return BigInteger.valueOf(Math.round(value * scale));
+	}
+
+	/**
+	 * Maps an opened field element back to a reading.
+	 * 
+	 * @param modulus
+	 *            field the value was computed in. If null, the value is
+	 *            taken as unsigned.
+	 */
+	public double decode(BigInteger value, BigInteger modulus) {
+		return signed(value, modulus).doubleValue() / scale;
+	}
+
+	/**
+	 * @return the value lifted to (-modulus/2, modulus/2]
+	 */
+	public static BigInteger signed(BigInteger value, BigInteger modulus) {
+		if (modulus == null) {
+			return value;
+		}
+		BigInteger v = value.mod(modulus);
+		return (v.compareTo(modulus.shiftRight(1)) > 0) ? v.subtract(modulus) : v;
+	}
+
+	public long getScale() {
+		return scale;
+	}
+
+}
@@ -0,0 +1,86 @@
+package de.tum.flexsmc.smc.metrics;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics is the registry for all measurements of a connector. Histograms
+ * record durations in nanoseconds. Counters only increase.
+ *
+ */
+public class Metrics {
+	// Histograms
+	public static final String PHASE_PREFIX = "phase.";
+	public static final String SCE_CREATE = "sce.create";
+	public static final String SCE_SETUP = "sce.setup";
+	public static final String LINK_PROBE = "link.probe";
+	public static final String SCE_RUN = "sce.run";
+	// Counters
+	public static final String PHASE_ERRORS_SUFFIX = ".errors";
+	public static final String PHASE_TIMEOUTS_SUFFIX = ".timeouts";
+	public static final String SESSIONS_OPENED = "sessions.opened";
+	public static final String SESSIONS_CLOSED = "sessions.closed";
+	public static final String SESSIONS_REAPED = "sessions.reaped";
+
+	private final ConcurrentHashMap<String, Histogram> histograms = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+
+	/**
+	 * @return the histogram of the given name. It is created on first use.
+	 */
+	public Histogram histogram(String name) {
+		Histogram h = histograms.get(name);
+		if (h == null) {
+			h = new Histogram();
+			Histogram old = histograms.putIfAbsent(name, h);
+			if (old != null) {
+				h = old;
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * Records the time passed since start in the given histogram.
+	 *
+	 * @param start
+	 *            result of System.nanoTime() at the beginning
+	 */
+	public void recordSince(String name, long start) {
+		histogram(name).record(System.nanoTime() - start);
+	}
+
+	public void count(String name) {
+		LongAdder c = counters.get(name);
+		if (c == null) {
+			c = new LongAdder();
+			LongAdder old = counters.putIfAbsent(name, c);
+			if (old != null) {
+				c = old;
+			}
+		}
+		c.increment();
+	}
+
+	/**
+	 * @return all histograms sorted by name
+	 */
+	public Map<String, Histogram> getHistograms() {
+		return Collections.unmodifiableMap(new TreeMap<>(histograms));
+	}
+
+	/**
+	 * @return current values of all counters sorted by name
+	 */
+	public Map<String, Long> getCounters() {
+		TreeMap<String, Long> values = new TreeMap<>();
+		for (Map.Entry<String, LongAdder> e : counters.entrySet()) {
+			values.put(e.getKey(), e.getValue().sum());
+		}
+		return values;
+	}
+
+}
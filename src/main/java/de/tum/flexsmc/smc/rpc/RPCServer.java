@@ -5,32 +5,104 @@ import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.concurrent.ConcurrentHashMap;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import de.tum.flexsmc.smc.engine.BgwEngine;
+import de.tum.flexsmc.smc.engine.PeerLinkCache;
+import de.tum.flexsmc.smc.engine.SessionScheduler;
+import de.tum.flexsmc.smc.engine.SharedResources;
+import de.tum.flexsmc.smc.input.InputRegistry;
+import de.tum.flexsmc.smc.metrics.Histogram;
+import de.tum.flexsmc.smc.metrics.Metrics;
 import de.tum.flexsmc.smc.rpc.SMCGrpc.SMCImplBase;
+import de.tum.flexsmc.smc.tracing.FileSpanExporter;
+import de.tum.flexsmc.smc.tracing.Tracer;
+import io.grpc.Context;
 import io.grpc.Server;
 import io.grpc.ServerInterceptors;
+import io.grpc.ServerServiceDefinition;
 import io.grpc.benchmarks.Utils;
+import io.grpc.inprocess.InProcessServerBuilder;
 import io.grpc.netty.NettyServerBuilder;
 import io.grpc.stub.StreamObserver;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.ServerChannel;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerDomainSocketChannel;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.unix.DomainSocketAddress;
 
 public class RPCServer {
 	private static final Logger l = Logger.getLogger(RPCServer.class.getName());
 
+	/**
+	 * Metadata key of a streamed reply referring to its session.
+	 */
+	public static final String META_SESSION_ID = "sessionID";
+	/**
+	 * Metadata keys of the ResetAll reply: sessions stopped in time, sessions
+	 * still closing after the deadline and the duration in ms.
+	 */
+	public static final String META_RESET_STOPPED = "stopped";
+	public static final String META_RESET_PENDING = "pending";
+	public static final String META_RESET_MILLIS = "durationMs";
+	public static final long DEFAULT_RESET_DEADLINE_MS = 5 * 1000;
+
 	private SocketAddress listenerSocket = new InetSocketAddress("localhost", 13131);
+	private boolean nativeTransport = true;
 	private Server server;
+	// Event loops of the Netty transport. The server does not own them.
+	private EventLoopGroup bossGroup;
+	private EventLoopGroup workerGroup;
+	private SharedResources shared = new SharedResources(new PeerLinkCache(), new InputRegistry(),
+			new SessionScheduler(), new Metrics(), null);
+	private final SessionExecutor executor = new SessionExecutor();
+	private int maxOpenSessions = SessionTable.DEFAULT_CAPACITY;
+	private long idleTimeoutMs = SessionTable.DEFAULT_IDLE_TIMEOUT_MS;
+	// Removes abandoned sessions of all services
+	private final ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "session-reaper");
+			t.setDaemon(true);
+			return t;
+		}
+	});
 
 	public RPCServer() {
 		// TODO Auto-generated constructor stub
 	}
 
+	/**
+	 * @param socket
+	 *            either "host:port" or a UNIX domain socket as
+	 *            "unix:///path/to/socket"
+	 */
 	public void setCustomSocket(String socket) {
+		if (socket.startsWith("unix:")) {
+			// Accept both unix:/path and unix:///path
+			String path = socket.substring("unix:".length());
+			while (path.startsWith("//")) {
+				path = path.substring(1);
+			}
+			this.listenerSocket = new DomainSocketAddress(path);
+			return;
+		}
 		try {
 			URI tmpURI = new URI("my://" + socket);
 			this.listenerSocket = new InetSocketAddress(tmpURI.getHost(), tmpURI.getPort());
@@ -40,17 +112,81 @@ public class RPCServer {
 		}
 	}
 
+	/**
+	 * @param enabled
+	 *            use the native epoll transport if available. Otherwise, NIO
+	 *            is used.
+	 */
+	public void setNativeTransport(boolean enabled) {
+		this.nativeTransport = enabled;
+	}
+
+	/**
+	 * Replaces the session limits and the managed port range. Must be set
+	 * before starting the server.
+	 */
+	public void setScheduler(SessionScheduler scheduler) {
+		this.shared = new SharedResources(shared.getLinkCache(), shared.getInputs(), scheduler, shared.getMetrics(),
+				shared.getTracer());
+	}
+
+	/**
+	 * Writes spans of all phases as JSON lines to the given file. Must be set
+	 * before starting the server.
+	 */
+	public void setTraceFile(Path file) throws IOException {
+		Tracer tracer = new Tracer(new FileSpanExporter(file));
+		this.shared = new SharedResources(shared.getLinkCache(), shared.getInputs(), shared.getScheduler(),
+				shared.getMetrics(), tracer);
+	}
+
+	/**
+	 * Limits the number of open sessions per service and the time a session
+	 * may wait for its next phase. Must be set before starting the server.
+	 */
+	public void setSessionLimits(int maxOpenSessions, long idleTimeoutMs) {
+		this.maxOpenSessions = maxOpenSessions;
+		this.idleTimeoutMs = idleTimeoutMs;
+	}
+
+	public SharedResources getSharedResources() {
+		return shared;
+	}
+
+	public SessionExecutor getSessionExecutor() {
+		return executor;
+	}
+
 	public void start() throws IOException {
-		// Use standard NIO instead of epoll for ARM support
-		final EventLoopGroup boss = new NioEventLoopGroup();
-		final EventLoopGroup worker = new NioEventLoopGroup();
-		final Class<? extends ServerChannel> channelType = NioServerSocketChannel.class;
+		// Prefer native epoll. Standard NIO remains as fallback, e.g. for ARM
+		// support.
+		final boolean domainSocket = listenerSocket instanceof DomainSocketAddress;
+		final EventLoopGroup boss;
+		final EventLoopGroup worker;
+		final Class<? extends ServerChannel> channelType;
+		if (nativeTransport && Epoll.isAvailable()) {
+			boss = new EpollEventLoopGroup(1);
+			worker = new EpollEventLoopGroup();
+			channelType = domainSocket ? EpollServerDomainSocketChannel.class : EpollServerSocketChannel.class;
+			l.info("Using native epoll transport");
 
+		} else if (domainSocket) {
+			throw new IOException("UNIX domain sockets require the native epoll transport: "
+					+ (nativeTransport ? Epoll.unavailabilityCause() : "disabled"));
+
+		} else {
+			boss = new NioEventLoopGroup(1);
+			worker = new NioEventLoopGroup();
+			channelType = NioServerSocketChannel.class;
+		}
+
+		this.bossGroup = boss;
+		this.workerGroup = worker;
 		this.server = NettyServerBuilder.forAddress(listenerSocket)
 				.bossEventLoopGroup(boss)
 				.workerEventLoopGroup(worker)
 				.channelType(channelType)
-				.addService(ServerInterceptors.intercept(new SMCImpl(), new SessionInterceptor()))
+				.addService(buildService())
 				.build().start();
 		l.info("RPC server started, listening on socket " + listenerSocket.toString());
 		Runtime.getRuntime().addShutdownHook(new Thread() {
@@ -65,6 +201,69 @@ public class RPCServer {
 		});
 	}
 
+	/**
+	 * Starts the server on the in-process transport. Clients in the same JVM
+	 * connect via InProcessChannelBuilder.forName(name). Stopping the server
+	 * is up to the caller.
+	 */
+	public void startInProcess(String name) throws IOException {
+		this.server = InProcessServerBuilder.forName(name)
+				.addService(buildService())
+				.build().start();
+		l.info("RPC server started in-process: " + name);
+	}
+
+	/**
+	 * @return the SMC service including session handling. Each call creates
+	 *         a service with its own session table.
+	 */
+	public ServerServiceDefinition buildService() {
+		return ServerInterceptors.intercept(new SMCImpl(), new SessionInterceptor());
+	}
+
+	/**
+	 * Collects the measurements of all engines and the state of the shared
+	 * facilities.
+	 */
+	StatsReply collectStats(SessionTable sessions) {
+		StatsReply.Builder reply = StatsReply.newBuilder().setActiveSessions(sessions.size());
+		reply.putCounters("sessions.capacity", sessions.getCapacity());
+		reply.putCounters("sessions.memory", sessions.estimateMemory());
+		Metrics metrics = shared.getMetrics();
+		if (metrics != null) {
+			for (Map.Entry<String, Histogram> e : metrics.getHistograms().entrySet()) {
+				Histogram h = e.getValue();
+				reply.addHistograms(HistogramSnapshot.newBuilder().setName(e.getKey()).setCount(h.getCount())
+						.setMean(h.getMean() / 1e6).setP50(h.getPercentile(50) / 1e6)
+						.setP90(h.getPercentile(90) / 1e6).setP99(h.getPercentile(99) / 1e6)
+						.setMax(h.getMax() / 1e6));
+			}
+			reply.putAllCounters(metrics.getCounters());
+		}
+		reply.putCounters("executor.pending", executor.getPendingCount());
+		reply.putCounters("executor.completed", executor.getCompleted());
+		reply.putCounters("executor.rejected", executor.getRejected());
+		PeerLinkCache linkCache = shared.getLinkCache();
+		if (linkCache != null) {
+			reply.putCounters("links.idle", linkCache.getIdleCount());
+			reply.putCounters("links.hits", linkCache.getHits());
+			reply.putCounters("links.misses", linkCache.getMisses());
+			reply.putCounters("links.evictions", linkCache.getEvictions());
+		}
+		SessionScheduler scheduler = shared.getScheduler();
+		if (scheduler != null) {
+			reply.putCounters("scheduler.active", scheduler.getActiveSessions());
+			reply.putCounters("scheduler.waiting", scheduler.getWaitingSessions());
+			reply.putCounters("scheduler.queued", scheduler.getQueued());
+			reply.putCounters("scheduler.denied", scheduler.getDenied());
+			reply.putCounters("scheduler.portconflicts", scheduler.getPortConflicts());
+		}
+		reply.putCounters("plans.cached", BgwEngine.getPlanCache().size());
+		reply.putCounters("plans.hits", BgwEngine.getPlanCache().getHits());
+		reply.putCounters("plans.misses", BgwEngine.getPlanCache().getMisses());
+		return reply.build();
+	}
+
 	/**
 	 * Await termination on the main thread since the grpc library uses daemon
 	 * threads.
@@ -75,10 +274,20 @@ public class RPCServer {
 		}
 	}
 
-	private void stop() {
+	/**
+	 * Stops the server and releases its event loops and all shared resources.
+	 */
+	public void stop() {
 		if (server != null) {
 			server.shutdown();
 		}
+		if (bossGroup != null) {
+			bossGroup.shutdownGracefully();
+			workerGroup.shutdownGracefully();
+		}
+		reaper.shutdownNow();
+		executor.shutdown();
+		shared.close();
 	}
 
 	// For testing the cross language support
@@ -92,43 +301,112 @@ public class RPCServer {
 		private final CmdResult errorInvalidSession = CmdResult.newBuilder().setMsg("Session ID not allowed")
 				.setStatus(CmdResult.Status.DENIED)
 				.build();
-		private ConcurrentHashMap<String, BgwEngine> sessions;
+		private final CmdResult errorBusy = CmdResult.newBuilder().setMsg("Server busy, retry later")
+				.setStatus(CmdResult.Status.DENIED)
+				.build();
+		private final CmdResult errorSessionLimit;
+		private final SessionTable sessions;
 
 		public SMCImpl() {
 			// Initialize
-			sessions = new ConcurrentHashMap<>();
+			sessions = new SessionTable(maxOpenSessions, idleTimeoutMs, SessionTable.DEFAULT_DONE_TIMEOUT_MS,
+					SessionTable.DEFAULT_MAX_PHASE_MS);
+			errorSessionLimit = CmdResult.newBuilder()
+					.setMsg("Session limit reached (" + sessions.getCapacity() + "), retry later")
+					.setStatus(CmdResult.Status.DENIED).build();
+			long interval = sessions.getReapInterval();
+			reaper.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					reap();
+				}
+			}, interval, interval, TimeUnit.MILLISECONDS);
 		}
 		
 		@Override
 		public void resetAll(FilterArgs req, StreamObserver<CmdResult> responseObserver) {
-			for (String sessionID : sessions.keySet()) {
-				l.finer("Start shutting down session: " + sessionID);
-				gracefulTearDown(sessionID);
+			long start = System.nanoTime();
+			long deadline = DEFAULT_RESET_DEADLINE_MS;
+			if (Context.current().getDeadline() != null) {
+				deadline = Math.min(deadline,
+						Math.max(0, Context.current().getDeadline().timeRemaining(TimeUnit.MILLISECONDS)));
 			}
+			int[] res = tearDownAll(deadline);
+			long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
 			// Reset should always work. If sessions are still running, the
 			// corresponding
 			// functions should throw an error to their caller instead.
-			l.finer("DONE shutting down resetAll");
-			CmdResult reply = CmdResult.newBuilder().setMsg("reset done.").setStatus(CmdResult.Status.SUCCESS).build();
+			l.fine("DONE shutting down resetAll: " + res[0] + " stopped, " + res[1] + " pending, " + millis + " ms");
+			CmdResult reply = CmdResult.newBuilder()
+					.setMsg("reset done: " + res[0] + " sessions stopped, " + res[1] + " still closing, " + millis
+							+ " ms")
+					.putMetadata(META_RESET_STOPPED, String.valueOf(res[0]))
+					.putMetadata(META_RESET_PENDING, String.valueOf(res[1]))
+					.putMetadata(META_RESET_MILLIS, String.valueOf(millis))
+					.setStatus(CmdResult.Status.SUCCESS).build();
 			responseObserver.onNext(reply);
 			responseObserver.onCompleted();
 		}
 
+		/**
+		 * Tears down all sessions concurrently. Running phases are aborted
+		 * first. Sessions not stopped within the deadline finish closing in
+		 * the background.
+		 * 
+		 * @return number of sessions stopped in time and still pending
+		 */
+		private int[] tearDownAll(long deadlineMs) {
+			List<String> ids = new ArrayList<>(sessions.keySet());
+			if (ids.isEmpty()) {
+				return new int[] { 0, 0 };
+			}
+			// Unblock running phases so their tear down does not wait for
+			// the network.
+			for (String sessionID : ids) {
+				BgwEngine eng = sessions.get(sessionID);
+				if (eng != null && !eng.isIdle()) {
+					try {
+						eng.abort();
+					} catch (RuntimeException e) {
+						l.fine("[" + sessionID + "] abort failed: " + e.getMessage());
+					}
+				}
+			}
+			final CountDownLatch stopped = new CountDownLatch(ids.size());
+			Runnable done = new Runnable() {
+				@Override
+				public void run() {
+					stopped.countDown();
+				}
+			};
+			// Tear downs of different sessions run concurrently on the
+			// session executor.
+			for (String sessionID : ids) {
+				l.finer("Start shutting down session: " + sessionID);
+				gracefulTearDown(sessionID, done);
+			}
+			try {
+				stopped.await(deadlineMs, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			int pending = (int) stopped.getCount();
+			if (pending > 0) {
+				l.warning("resetAll: " + pending + " sessions still closing after " + deadlineMs + " ms");
+			}
+			return new int[] { ids.size() - pending, pending };
+		}
+
 		@Override
 		public void init(SessionCtx req, StreamObserver<CmdResult> responseObserver) {
 			// Initiate new session if session ID is not already in use.
 			String sessionID = req.getSessionID();
-			if (sessions.containsKey(sessionID)) {
-				l.warning("[" + sessionID + "] already exists!");
-				responseObserver.onNext(errorInvalidSession);
+			if (openSession(sessionID) == null) {
+				l.warning("[" + sessionID + "] already exists or limit reached: " + sessions);
+				responseObserver.onNext(sessions.isFull() ? errorSessionLimit : errorInvalidSession);
 				responseObserver.onCompleted();
 				return;
 			}
-			// Setup Fresco and associate with session
-			BgwEngine engine = new BgwEngine();
-			sessions.put(sessionID, engine);
-			
-			l.info("[" + sessionID + "] new session started");
 
 			// Reply to caller
 			CmdResult reply = CmdResult.newBuilder().setMsg("[" + sessionID + "] init done.")
@@ -138,55 +416,383 @@ public class RPCServer {
 		}
 
 		@Override
-		public void nextCmd(SMCCmd req, StreamObserver<CmdResult> responseObserver) {
+		public void nextCmd(final SMCCmd req, final StreamObserver<CmdResult> responseObserver) {
 			// Extract current session from ID
-			String sessionID = SessionInterceptor.SESSION_ID.get();
+			final String sessionID = SessionInterceptor.SESSION_ID.get();
 			l.finer("Current session: " + sessionID);
 			// Fetch associated engine
-			BgwEngine eng = (BgwEngine) sessions.get(sessionID);
+			final BgwEngine eng = sessions.get(sessionID);
 			if (eng == null) {
 				responseObserver.onNext(errorInvalidSession);
 				responseObserver.onCompleted();
 				l.warning("[" + sessionID + "] nextCmd: no session found!");
 				return;
 			}
-			
-			CmdResult resp;
+
+			// Run the phase apart from the RPC threads. The reply is sent
+			// asynchronously once it is done.
+			Runnable phase = Context.current().wrap(new Runnable() {
+				@Override
+				public void run() {
+					CmdResult resp = runPhase(sessionID, eng, req);
+					responseObserver.onNext(resp);
+					responseObserver.onCompleted();
+				}
+			});
 			try {
-				resp = eng.runNextPhase(req);
-				
-			} catch (Exception e) {
-				// Exception means that we reached a non-fixable error condition.
-				gracefulTearDown(sessionID);
-				resp = CmdResult.newBuilder().setMsg(e.getMessage()).setStatus(CmdResult.Status.ABORTED).build();
+				submit(sessionID, eng, req, phase);
+
+			} catch (RejectedExecutionException e) {
+				// Overload is temporary. Let the caller retry this phase.
+				l.warning("[" + sessionID + "] nextCmd rejected: " + executor);
+				responseObserver.onNext(errorBusy);
+				responseObserver.onCompleted();
 			}
+		}
 
-			responseObserver.onNext(resp);
-			responseObserver.onCompleted();
+		@Override
+		public StreamObserver<SMCCmd> run(StreamObserver<CmdResult> responseObserver) {
+			return new JobStream(responseObserver);
 		}
 
-		public void tearDown(SessionCtx req, StreamObserver<CmdResult> responseObserver) {
-			gracefulTearDown(req.getSessionID());
-			CmdResult msg = CmdResult.newBuilder().setStatus(CmdResult.Status.SUCCESS_DONE).build();
-			responseObserver.onNext(msg);
+		@Override
+		public void stats(FilterArgs req, StreamObserver<StatsReply> responseObserver) {
+			responseObserver.onNext(collectStats(sessions));
 			responseObserver.onCompleted();
+		}
+
+		public void tearDown(SessionCtx req, final StreamObserver<CmdResult> responseObserver) {
+			// Reply once all phases queued before are done and the engine is
+			// stopped.
+			gracefulTearDown(req.getSessionID(), new Runnable() {
+				@Override
+				public void run() {
+					CmdResult msg = CmdResult.newBuilder().setStatus(CmdResult.Status.SUCCESS_DONE).build();
+					responseObserver.onNext(msg);
+					responseObserver.onCompleted();
+				}
+			});
 			return;
 		}
 		
 		// Helpers
+
+		/**
+		 * Associates a new engine with the session ID.
+		 * 
+		 * @return null if the session ID is already in use
+		 */
+		private BgwEngine openSession(String sessionID) {
+			if (sessions.containsKey(sessionID)) {
+				return null;
+			}
+			// Setup Fresco and associate with session
+			BgwEngine engine = new BgwEngine(shared);
+			if (!sessions.putIfAbsent(sessionID, engine)) {
+				return null;
+			}
+			l.info("[" + sessionID + "] new session started");
+			count(Metrics.SESSIONS_OPENED);
+			return engine;
+		}
+
+		/**
+		 * Queues a phase on the session executor. A preparation first waits
+		 * for a session slot, so no executor thread is blocked by admission.
+		 * If no more sessions may wait, the preparation is queued right away
+		 * and denied by the engine.
+		 * 
+		 * @throws RejectedExecutionException
+		 *             if too many phases are pending
+		 */
+		private void submit(final String sessionID, final BgwEngine eng, SMCCmd req, final Runnable phase)
+				throws RejectedExecutionException {
+			final SessionScheduler scheduler = shared.getScheduler();
+			boolean prepares = req.getPayloadCase() == SMCCmd.PayloadCase.PREPARE
+					|| req.getPayloadCase() == SMCCmd.PayloadCase.FUSED;
+			if (scheduler == null || !prepares || eng.isAdmitted()) {
+				executor.execute(sessionID, phase);
+				return;
+			}
+			boolean accepted = scheduler.admitLater(new Runnable() {
+				@Override
+				public void run() {
+					if (!eng.grantSlot()) {
+						// Torn down while waiting or admitted before
+						scheduler.leave();
+					}
+					try {
+						executor.executeAlways(sessionID, phase);
+
+					} catch (RejectedExecutionException e) {
+						l.fine("[" + sessionID + "] admitted after shutdown");
+					}
+				}
+			});
+			if (!accepted) {
+				executor.execute(sessionID, phase);
+			}
+		}
+
+		/**
+		 * Runs the next phase of a session. Non-fixable errors tear down the
+		 * session.
+		 */
+		private CmdResult runPhase(String sessionID, BgwEngine eng, SMCCmd req) {
+			if (!sessions.isOpen(sessionID, eng)) {
+				// Torn down while the phase was queued
+				return errorInvalidSession;
+			}
+			try {
+				sessions.startPhase(sessionID);
+				CmdResult res = eng.runNextPhase(req);
+				sessions.touch(sessionID);
+				return res;
+
+			} catch (Exception e) {
+				// Exception means that we reached a non-fixable error condition.
+				gracefulTearDown(sessionID, null);
+				return CmdResult.newBuilder().setMsg(e.getMessage()).setStatus(CmdResult.Status.ABORTED).build();
+			}
+		}
 		
-		// Tries shutting down any active SMC session and cleans up used resources.
-		private void gracefulTearDown(String sessionID) {
-			BgwEngine oldEngine = sessions.remove(sessionID);
-			if (oldEngine != null) {
-				oldEngine.stopAndInvalidate();
-				l.fine("gracefulTearDown: successful");
-			
-			} else {
+		private void count(String name) {
+			if (shared.getMetrics() != null) {
+				shared.getMetrics().count(name);
+			}
+		}
+
+		/**
+		 * Tears down all expired sessions. Running phases are aborted first.
+		 */
+		private void reap() {
+			for (String sessionID : sessions.expired(System.currentTimeMillis())) {
+				BgwEngine eng = sessions.get(sessionID);
+				if (eng == null) {
+					continue;
+				}
+				l.warning("[" + sessionID + "] expired in phase " + eng.getPhase() + ", about "
+						+ eng.estimateMemory() / 1024 + " KiB");
+				if (!eng.isIdle()) {
+					try {
+						eng.abort();
+					} catch (RuntimeException e) {
+						l.fine("[" + sessionID + "] abort failed: " + e.getMessage());
+					}
+				}
+				gracefulTearDown(sessionID, null);
+				count(Metrics.SESSIONS_REAPED);
+			}
+		}
+
+		/**
+		 * Tries shutting down any active SMC session and cleans up used
+		 * resources. Closes the session for further commands and queues its
+		 * tear down behind all phases already submitted for it. So the engine
+		 * is never stopped while a phase still uses it.
+		 * 
+		 * @param done
+		 *            run once the engine is stopped. May be null.
+		 */
+		private void gracefulTearDown(final String sessionID, final Runnable done) {
+			final BgwEngine oldEngine = sessions.remove(sessionID);
+			if (oldEngine == null) {
 				l.fine("gracefulTearDown: session not associated with active engine: " + sessionID);
+				if (done != null) {
+					done.run();
+				}
+				return;
+			}
+			Runnable stop = new Runnable() {
+				@Override
+				public void run() {
+					try {
+						oldEngine.stopAndInvalidate();
+						count(Metrics.SESSIONS_CLOSED);
+						l.fine("gracefulTearDown: successful: " + sessionID);
+					} finally {
+						if (done != null) {
+							done.run();
+						}
+					}
+				}
+			};
+			try {
+				executor.executeAlways(sessionID, stop);
+
+			} catch (RejectedExecutionException e) {
+				// Executor already shut down, no phase will run anymore.
+				stop.run();
 			}
 		}
-		
+	
+		/**
+		 * JobStream handles the commands of many sessions multiplexed over a
+		 * single stream. Phases of different sessions run concurrently. A
+		 * stream only drives the sessions it opened itself. Sessions still
+		 * open when the stream ends are torn down.
+		 */
+		private class JobStream implements StreamObserver<SMCCmd> {
+			private final StreamObserver<CmdResult> out;
+			// Sessions opened by this stream and not torn down yet
+			private final Set<String> open = new HashSet<>();
+			private int outstanding = 0;
+			private boolean halfClosed = false;
+			private boolean closed = false;
+
+			JobStream(StreamObserver<CmdResult> out) {
+				this.out = out;
+			}
+
+			@Override
+			public void onNext(final SMCCmd cmd) {
+				final String sessionID = cmd.getSessionID();
+				if (sessionID.isEmpty()) {
+					send(sessionID, errorInvalidSession);
+					return;
+				}
+				BgwEngine eng = sessions.get(sessionID);
+				if (eng != null && !owns(sessionID)) {
+					// Opened by another stream or call
+					l.warning("[" + sessionID + "] stream command for foreign session");
+					send(sessionID, errorInvalidSession);
+					return;
+				}
+				// Explicit end of a job
+				if (cmd.getPayloadCase() == SMCCmd.PayloadCase.PAYLOAD_NOT_SET
+						&& (cmd.getState() == SMCCmd.Phase.FINISH || cmd.getState() == SMCCmd.Phase.ABORT)) {
+					synchronized (this) {
+						outstanding++;
+						open.remove(sessionID);
+					}
+					// Reply once the phases queued before are done.
+					gracefulTearDown(sessionID, new Runnable() {
+						@Override
+						public void run() {
+							send(sessionID, CmdResult.newBuilder().setStatus(CmdResult.Status.SUCCESS_DONE).build());
+							done();
+						}
+					});
+					return;
+				}
+
+				if (eng == null) {
+					eng = openSession(sessionID);
+					if (eng == null) {
+						send(sessionID, sessions.isFull() ? errorSessionLimit : errorInvalidSession);
+						return;
+					}
+					synchronized (this) {
+						open.add(sessionID);
+					}
+				}
+
+				final BgwEngine engine = eng;
+				synchronized (this) {
+					outstanding++;
+				}
+				Runnable phase = Context.current().wrap(new Runnable() {
+					@Override
+					public void run() {
+						CmdResult resp = runPhase(sessionID, engine, cmd);
+						if (resp.getStatus() == CmdResult.Status.SUCCESS_DONE
+								|| resp.getStatus() == CmdResult.Status.ABORTED) {
+							// No further commands expected for this job.
+							finish(sessionID);
+						}
+						send(sessionID, resp);
+						done();
+					}
+				});
+				try {
+					submit(sessionID, engine, cmd, phase);
+
+				} catch (RejectedExecutionException e) {
+					l.warning("[" + sessionID + "] stream command rejected: " + executor);
+					send(sessionID, errorBusy);
+					done();
+				}
+			}
+
+			@Override
+			public void onError(Throwable t) {
+				l.warning("Job stream failed: " + t.getMessage());
+				synchronized (this) {
+					closed = true;
+				}
+				finishAll();
+			}
+
+			@Override
+			public void onCompleted() {
+				synchronized (this) {
+					halfClosed = true;
+				}
+				completeIfDone();
+			}
+
+			private synchronized boolean owns(String sessionID) {
+				return open.contains(sessionID);
+			}
+
+			private void finish(String sessionID) {
+				synchronized (this) {
+					open.remove(sessionID);
+				}
+				gracefulTearDown(sessionID, null);
+			}
+
+			private void finishAll() {
+				Set<String> left;
+				synchronized (this) {
+					left = new HashSet<>(open);
+					open.clear();
+				}
+				for (String sessionID : left) {
+					gracefulTearDown(sessionID, null);
+				}
+			}
+
+			/**
+			 * Marks a command as handled.
+			 */
+			private void done() {
+				synchronized (this) {
+					outstanding--;
+				}
+				completeIfDone();
+			}
+
+			/**
+			 * Closes the stream if the client is done and no command is
+			 * outstanding anymore.
+			 */
+			private void completeIfDone() {
+				synchronized (this) {
+					if (!halfClosed || outstanding > 0 || closed) {
+						return;
+					}
+					closed = true;
+				}
+				finishAll();
+				synchronized (out) {
+					out.onCompleted();
+				}
+			}
+
+			private void send(String sessionID, CmdResult resp) {
+				CmdResult msg = resp.toBuilder().putMetadata(META_SESSION_ID, sessionID).build();
+				synchronized (this) {
+					if (closed) {
+						return;
+					}
+				}
+				synchronized (out) {
+					out.onNext(msg);
+				}
+			}
+		}
+
 	}
 
 }
@@ -0,0 +1,168 @@
+package de.tum.flexsmc.smc.rpc;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * SessionExecutor runs the phases of all sessions on a bounded thread pool, so
+ * long running phases do not block the RPC threads. Tasks of the same session
+ * are executed one after another in submission order. If too many tasks are
+ * pending, new ones are rejected.
+ *
+ */
+public class SessionExecutor {
+	private static final Logger l = Logger.getLogger(SessionExecutor.class.getName());
+
+	public static final int DEFAULT_THREADS = 16;
+	public static final int DEFAULT_MAX_PENDING = 256;
+
+	private final ThreadPoolExecutor pool;
+	private final int maxPending;
+	// Queued tasks per session. A session is present while one of its tasks
+	// is running.
+	private final HashMap<String, ArrayDeque<Runnable>> queues = new HashMap<>();
+
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicLong submitted = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong completed = new AtomicLong();
+
+	public SessionExecutor() {
+		this(DEFAULT_THREADS, DEFAULT_MAX_PENDING);
+	}
+
+	public SessionExecutor(int threads, int maxPending) {
+		this.maxPending = maxPending;
+		final AtomicInteger threadNo = new AtomicInteger();
+		this.pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "session-exec-" + threadNo.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		pool.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * Schedules a task of the given session. It runs after all tasks submitted
+	 * before for the same session.
+	 * 
+	 * @throws RejectedExecutionException
+	 *             if the executor is saturated
+	 */
+	public void execute(String sessionID, Runnable task) throws RejectedExecutionException {
+		if (pending.incrementAndGet() > maxPending) {
+			pending.decrementAndGet();
+			rejected.incrementAndGet();
+			throw new RejectedExecutionException("Too many pending commands: " + maxPending);
+		}
+		enqueue(sessionID, task);
+	}
+
+	/**
+	 * Schedules a task of the given session regardless of the number of
+	 * pending tasks, e.g. its tear down. It runs after all tasks submitted
+	 * before for the same session.
+	 * 
+	 * @throws RejectedExecutionException
+	 *             if the executor was shut down
+	 */
+	public void executeAlways(String sessionID, Runnable task) throws RejectedExecutionException {
+		pending.incrementAndGet();
+		enqueue(sessionID, task);
+	}
+
+	private void enqueue(String sessionID, Runnable task) {
+		submitted.incrementAndGet();
+
+		synchronized (queues) {
+			ArrayDeque<Runnable> q = queues.get(sessionID);
+			if (q != null) {
+				// Previous task still running. It dispatches this one.
+				q.addLast(task);
+				return;
+			}
+			queues.put(sessionID, new ArrayDeque<Runnable>());
+		}
+		try {
+			dispatch(sessionID, task);
+		} catch (RejectedExecutionException e) {
+			// Shut down. Do not leave a stale queue behind.
+			synchronized (queues) {
+				queues.remove(sessionID);
+			}
+			pending.decrementAndGet();
+			throw e;
+		}
+	}
+
+	private void dispatch(final String sessionID, final Runnable task) {
+		pool.execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					task.run();
+				} catch (RuntimeException e) {
+					l.log(Level.WARNING, "[" + sessionID + "] command failed", e);
+				} finally {
+					pending.decrementAndGet();
+					completed.incrementAndGet();
+				}
+				Runnable next;
+				synchronized (queues) {
+					ArrayDeque<Runnable> q = queues.get(sessionID);
+					next = q.pollFirst();
+					if (next == null) {
+						queues.remove(sessionID);
+					}
+				}
+				if (next != null) {
+					dispatch(sessionID, next);
+				}
+			}
+		});
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	public int getPendingCount() {
+		return pending.get();
+	}
+
+	public int getActiveCount() {
+		return pool.getActiveCount();
+	}
+
+	public long getSubmitted() {
+		return submitted.get();
+	}
+
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	public long getCompleted() {
+		return completed.get();
+	}
+
+	@Override
+	public String toString() {
+		return "SessionExecutor [pending=" + getPendingCount() + ", active=" + getActiveCount() + ", submitted="
+				+ getSubmitted() + ", rejected=" + getRejected() + ", completed=" + getCompleted() + "]";
+	}
+
+}
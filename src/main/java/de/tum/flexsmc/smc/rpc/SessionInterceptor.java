@@ -3,6 +3,7 @@ package de.tum.flexsmc.smc.rpc;
 import java.util.HashSet;
 import java.util.logging.Logger;
 
+import de.tum.flexsmc.smc.tracing.TraceContext;
 import io.grpc.Context;
 import io.grpc.Contexts;
 import io.grpc.Metadata;
@@ -27,14 +28,23 @@ public class SessionInterceptor implements ServerInterceptor {
 		ignoreMethods.add("smc.SMC/ResetAll");
 		ignoreMethods.add("smc.SMC/Init");
 		ignoreMethods.add("smc.SMC/TearDown");
+		ignoreMethods.add("smc.SMC/Stats");
+		// Streams carry the session ID in each command.
+		ignoreMethods.add("smc.SMC/Run");
 	}
 
 	@Override
 	public <ReqT, RespT> Listener<ReqT> interceptCall(ServerCall<ReqT, RespT> call, Metadata headers,
 			ServerCallHandler<ReqT, RespT> next) {
 		String methodName = call.getMethodDescriptor().getFullMethodName();
+		// Join the GW's trace if given
+		Context context = Context.current();
+		TraceContext trace = TraceContext.parse(headers.get(TraceContext.HEADER));
+		if (trace != null) {
+			context = context.withValue(TraceContext.KEY, trace);
+		}
 		if (ignoreMethods.contains(methodName)) {
-			return next.startCall(call, headers);
+			return Contexts.interceptCall(context, call, headers, next);
 		}
 		// Require a valid session ID from now on
 		l.finest("Interceptor session: " + headers.get(SESSION_KEY));
@@ -45,7 +55,7 @@ public class SessionInterceptor implements ServerInterceptor {
 			return new Listener<ReqT>() {
 			};
 		}
-		Context context = Context.current().withValue(SESSION_ID, sessID);
+		context = context.withValue(SESSION_ID, sessID);
 		return Contexts.interceptCall(context, call, headers, next);
 	}
 
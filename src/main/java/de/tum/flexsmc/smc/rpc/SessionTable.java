@@ -0,0 +1,207 @@
+package de.tum.flexsmc.smc.rpc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.tum.flexsmc.smc.engine.BgwEngine;
+import de.tum.flexsmc.smc.engine.EngineControl.JobPhase;
+
+/**
+ * SessionTable holds the engines of all open sessions of a service. The
+ * number of sessions is bounded. Sessions abandoned by the GW expire
+ * depending on their phase:
+ * <ul>
+ * <li>waiting for the next phase: after the idle timeout</li>
+ * <li>done, waiting for tear down: after the done timeout</li>
+ * <li>running a phase: after the maximum phase duration, counted from the
+ * start of the current phase. Each window of a stream is a phase of its own.
+ * Phase deadlines normally end them much earlier.</li>
+ * </ul>
+ *
+ */
+public class SessionTable {
+	public static final int DEFAULT_CAPACITY = 256;
+	public static final long DEFAULT_IDLE_TIMEOUT_MS = 60 * 1000;
+	public static final long DEFAULT_DONE_TIMEOUT_MS = 10 * 1000;
+	public static final long DEFAULT_MAX_PHASE_MS = 10 * 60 * 1000;
+
+	private static final class Entry {
+		final BgwEngine engine;
+		volatile long lastActive;
+		volatile long phaseStart;
+
+		Entry(BgwEngine engine, long now) {
+			this.engine = engine;
+			this.lastActive = now;
+			this.phaseStart = now;
+		}
+	}
+
+	private final ConcurrentHashMap<String, Entry> sessions = new ConcurrentHashMap<>();
+	private final int capacity;
+	private final long idleTimeoutMs;
+	private final long doneTimeoutMs;
+	private final long maxPhaseMs;
+
+	public SessionTable() {
+		this(DEFAULT_CAPACITY, DEFAULT_IDLE_TIMEOUT_MS, DEFAULT_DONE_TIMEOUT_MS, DEFAULT_MAX_PHASE_MS);
+	}
+
+	/**
+	 * @param capacity
+	 *            maximum number of open sessions
+	 * @param idleTimeoutMs
+	 *            time a session may wait for its next phase
+	 * @param doneTimeoutMs
+	 *            time a finished session may wait for its tear down
+	 * @param maxPhaseMs
+	 *            time a single phase may run
+	 */
+	public SessionTable(int capacity, long idleTimeoutMs, long doneTimeoutMs, long maxPhaseMs) {
+		if (capacity < 1 || idleTimeoutMs <= 0 || doneTimeoutMs <= 0 || maxPhaseMs <= 0) {
+			throw new IllegalArgumentException("Invalid session limits");
+		}
+		this.capacity = capacity;
+		this.idleTimeoutMs = idleTimeoutMs;
+		this.doneTimeoutMs = doneTimeoutMs;
+		this.maxPhaseMs = maxPhaseMs;
+	}
+
+	/**
+	 * @return the engine of the session or null. Marks the session as active.
+	 */
+	public BgwEngine get(String sessionID) {
+		Entry e = sessions.get(sessionID);
+		if (e == null) {
+			return null;
+		}
+		e.lastActive = System.currentTimeMillis();
+		return e.engine;
+	}
+
+	/**
+	 * Marks the session as active, e.g. after a phase finished.
+	 */
+	public void touch(String sessionID) {
+		Entry e = sessions.get(sessionID);
+		if (e != null) {
+			e.lastActive = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Marks the start of a phase of the session.
+	 */
+	public void startPhase(String sessionID) {
+		Entry e = sessions.get(sessionID);
+		if (e != null) {
+			long now = System.currentTimeMillis();
+			e.phaseStart = now;
+			e.lastActive = now;
+		}
+	}
+
+	/**
+	 * @return true if the session is open and still bound to the given engine
+	 */
+	public boolean isOpen(String sessionID, BgwEngine engine) {
+		Entry e = sessions.get(sessionID);
+		return e != null && e.engine == engine;
+	}
+
+	public boolean containsKey(String sessionID) {
+		return sessions.containsKey(sessionID);
+	}
+
+	/**
+	 * Adds a session unless its ID is in use or the table is full.
+	 *
+	 * @return true if added
+	 */
+	public synchronized boolean putIfAbsent(String sessionID, BgwEngine engine) {
+		if (sessions.size() >= capacity || sessions.containsKey(sessionID)) {
+			return false;
+		}
+		sessions.put(sessionID, new Entry(engine, System.currentTimeMillis()));
+		return true;
+	}
+
+	/**
+	 * @return the engine of the removed session or null
+	 */
+	public BgwEngine remove(String sessionID) {
+		Entry e = sessions.remove(sessionID);
+		return (e != null) ? e.engine : null;
+	}
+
+	public Set<String> keySet() {
+		return sessions.keySet();
+	}
+
+	public int size() {
+		return sessions.size();
+	}
+
+	public boolean isFull() {
+		return sessions.size() >= capacity;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return IDs of all sessions which expired at the given time
+	 */
+	public List<String> expired(long now) {
+		List<String> res = new ArrayList<>();
+		for (Map.Entry<String, Entry> s : sessions.entrySet()) {
+			Entry e = s.getValue();
+			JobPhase phase = e.engine.getPhase();
+			long deadline;
+			switch (phase) {
+			case PREPARE_START:
+			case LINKING_START:
+			case SESSION_START:
+				deadline = e.phaseStart + maxPhaseMs;
+				break;
+			case SESSION_FINSIH:
+				deadline = e.lastActive + doneTimeoutMs;
+				break;
+			default:
+				deadline = e.lastActive + idleTimeoutMs;
+			}
+			if (now > deadline) {
+				res.add(s.getKey());
+			}
+		}
+		return res;
+	}
+
+	/**
+	 * @return estimated heap usage of all open sessions in bytes
+	 */
+	public long estimateMemory() {
+		long sum = 0;
+		for (Entry e : sessions.values()) {
+			sum += e.engine.estimateMemory();
+		}
+		return sum;
+	}
+
+	/**
+	 * @return interval to look for expired sessions in ms
+	 */
+	public long getReapInterval() {
+		return Math.max(100, Math.min(idleTimeoutMs, doneTimeoutMs) / 4);
+	}
+
+	@Override
+	public String toString() {
+		return "SessionTable [size=" + size() + ", capacity=" + capacity + "]";
+	}
+
+}
@@ -0,0 +1,95 @@
+package de.tum.flexsmc.smc.tracing;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * FileSpanExporter appends each span as a line of JSON to a local file, e.g.
+ * 
+ * <pre>
+ * {"trace":"4bf9...","span":"a2fb...","parent":"00f0...","name":"phase.session","start_us":1480000000000000,"duration_us":1234,"attrs":{"peer":"1"}}
+ * </pre>
+ *
+ */
+public class FileSpanExporter implements SpanExporter {
+	private static final Logger l = Logger.getLogger(FileSpanExporter.class.getName());
+
+	private final BufferedWriter out;
+	private boolean failed = false;
+
+	public FileSpanExporter(Path file) throws IOException {
+		this.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND);
+	}
+
+	@Override
+	public void export(Span span) {
+		StringBuilder sb = new StringBuilder(256);
+		sb.append("{\"trace\":\"").append(span.getTraceId()).append("\",\"span\":\"").append(span.getSpanId())
+				.append('"');
+		if (span.getParentId() != null) {
+			sb.append(",\"parent\":\"").append(span.getParentId()).append('"');
+		}
+		sb.append(",\"name\":");
+		quote(sb, span.getName());
+		sb.append(",\"start_us\":").append(span.getStartMicros());
+		sb.append(",\"duration_us\":").append(span.getDurationNanos() / 1000);
+		sb.append(",\"attrs\":{");
+		boolean first = true;
+		for (Map.Entry<String, String> e : span.getAttributes().entrySet()) {
+			if (!first) {
+				sb.append(',');
+			}
+			first = false;
+			quote(sb, e.getKey());
+			sb.append(':');
+			quote(sb, e.getValue());
+		}
+		sb.append("}}\n");
+
+		synchronized (this) {
+			if (failed) {
+				return;
+			}
+			try {
+				out.write(sb.toString());
+				out.flush();
+			} catch (IOException e) {
+				// Tracing must never break a job.
+				failed = true;
+				l.warning("Writing spans failed, tracing disabled: " + e.getMessage());
+			}
+		}
+	}
+
+	private static void quote(StringBuilder sb, String s) {
+		sb.append('"');
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c == '"' || c == '\\') {
+				sb.append('\\').append(c);
+			} else if (c < 0x20) {
+				sb.append(String.format("\\u%04x", (int) c));
+			} else {
+				sb.append(c);
+			}
+		}
+		sb.append('"');
+	}
+
+	@Override
+	public synchronized void close() {
+		try {
+			out.close();
+		} catch (IOException e) {
+			l.warning("Closing span file failed: " + e.getMessage());
+		}
+	}
+
+}
@@ -0,0 +1,104 @@
+package de.tum.flexsmc.smc.tracing;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Span measures a single operation of a trace. A started span is the parent
+ * of all spans started on the same thread until it ends. Spans must be ended
+ * on the thread they were started on.
+ *
+ */
+public class Span {
+	/**
+	 * Span of a disabled tracer. Records nothing.
+	 */
+	static final Span NOOP = new Span(null, "noop", null, null, null, null) {
+		@Override
+		public Span set(String key, Object value) {
+			return this;
+		}
+
+		@Override
+		public void end() {
+		}
+	};
+
+	private final Tracer tracer;
+	private final String name;
+	private final String traceId;
+	private final String spanId;
+	private final String parentId;
+	private final Span previous;
+	private final long startMicros;
+	private final long startNanos;
+	private long durationNanos = -1;
+	private final Map<String, String> attributes = new LinkedHashMap<>(4);
+
+	Span(Tracer tracer, String name, String traceId, String spanId, String parentId, Span previous) {
+		this.tracer = tracer;
+		this.name = name;
+		this.traceId = traceId;
+		this.spanId = spanId;
+		this.parentId = parentId;
+		this.previous = previous;
+		this.startMicros = System.currentTimeMillis() * 1000;
+		this.startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Adds an attribute, e.g. the peer ID.
+	 */
+	public Span set(String key, Object value) {
+		attributes.put(key, String.valueOf(value));
+		return this;
+	}
+
+	/**
+	 * Finishes the span and hands it to the exporter. Ending a span twice has
+	 * no effect.
+	 */
+	public void end() {
+		if (durationNanos >= 0) {
+			return;
+		}
+		durationNanos = System.nanoTime() - startNanos;
+		tracer.finish(this);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public String getTraceId() {
+		return traceId;
+	}
+
+	public String getSpanId() {
+		return spanId;
+	}
+
+	/**
+	 * @return ID of the parent span or null for a root span
+	 */
+	public String getParentId() {
+		return parentId;
+	}
+
+	public long getStartMicros() {
+		return startMicros;
+	}
+
+	public long getDurationNanos() {
+		return durationNanos;
+	}
+
+	public Map<String, String> getAttributes() {
+		return attributes;
+	}
+
+	Span getPrevious() {
+		return previous;
+	}
+
+}
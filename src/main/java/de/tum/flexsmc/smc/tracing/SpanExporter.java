@@ -0,0 +1,14 @@
+package de.tum.flexsmc.smc.tracing;
+
+/**
+ * SpanExporter receives all finished spans of a tracer.
+ *
+ */
+public interface SpanExporter {
+	/**
+	 * Called on the thread ending the span. Must not block for long.
+	 */
+	void export(Span span);
+
+	void close();
+}
@@ -0,0 +1,98 @@
+package de.tum.flexsmc.smc.tracing;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import io.grpc.Context;
+import io.grpc.Metadata;
+
+/**
+ * TraceContext identifies the trace a job belongs to and the span of the
+ * caller. It is passed by the GW in the W3C "traceparent" header, e.g.
+ * "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01". All peers of a
+ * job receive the same trace ID, so their spans can be joined.
+ *
+ */
+public final class TraceContext {
+	public static final Metadata.Key<String> HEADER = Metadata.Key.of("traceparent",
+			Metadata.ASCII_STRING_MARSHALLER);
+	public static final Context.Key<TraceContext> KEY = Context.key("trace-context");
+
+	private final String traceId;
+	private final String spanId;
+
+	TraceContext(String traceId, String spanId) {
+		this.traceId = traceId;
+		this.spanId = spanId;
+	}
+
+	/**
+	 * @return the trace context of the given header value or null if it is
+	 *         missing or malformed
+	 */
+	public static TraceContext parse(String traceparent) {
+		if (traceparent == null) {
+			return null;
+		}
+		String[] parts = traceparent.trim().split("-");
+		if (parts.length < 4 || parts[1].length() != 32 || parts[2].length() != 16 || !isHex(parts[1])
+				|| !isHex(parts[2])) {
+			return null;
+		}
+		return new TraceContext(parts[1].toLowerCase(), parts[2].toLowerCase());
+	}
+
+	/**
+	 * @return the trace context carried by the current gRPC context or null
+	 */
+	public static TraceContext current() {
+		return KEY.get();
+	}
+
+	public String getTraceId() {
+		return traceId;
+	}
+
+	public String getSpanId() {
+		return spanId;
+	}
+
+	public String toHeader() {
+		return "00-" + traceId + "-" + spanId + "-01";
+	}
+
+	static String newTraceId() {
+		return randomHex(2);
+	}
+
+	static String newSpanId() {
+		return randomHex(1);
+	}
+
+	private static String randomHex(int longs) {
+		StringBuilder sb = new StringBuilder(16 * longs);
+		ThreadLocalRandom rnd = ThreadLocalRandom.current();
+		for (int i = 0; i < longs; i++) {
+			String h = Long.toHexString(rnd.nextLong());
+			for (int pad = h.length(); pad < 16; pad++) {
+				sb.append('0');
+			}
+			sb.append(h);
+		}
+		return sb.toString();
+	}
+
+	private static boolean isHex(String s) {
+		for (int i = 0; i < s.length(); i++) {
+			if (Character.digit(s.charAt(i), 16) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return toHeader();
+	}
+
+}
@@ -0,0 +1,68 @@
+package de.tum.flexsmc.smc.tracing;
+
+/**
+ * Tracer creates spans and passes finished ones to an exporter. The parent of
+ * a new span is the span currently active on the thread. Otherwise, the trace
+ * context of the current gRPC call is used, which makes the span part of the
+ * GW's trace.
+ *
+ */
+public class Tracer {
+	/**
+	 * Disabled tracer. Spans cost nothing.
+	 */
+	public static final Tracer NOOP = new Tracer(null);
+
+	private final SpanExporter exporter;
+	private final ThreadLocal<Span> current = new ThreadLocal<>();
+
+	public Tracer(SpanExporter exporter) {
+		this.exporter = exporter;
+	}
+
+	/**
+	 * Starts a span as child of the current span or trace context.
+	 */
+	public Span start(String name) {
+		if (exporter == null) {
+			return Span.NOOP;
+		}
+		Span parent = current.get();
+		String traceId;
+		String parentId;
+		if (parent != null) {
+			traceId = parent.getTraceId();
+			parentId = parent.getSpanId();
+		} else {
+			TraceContext ctx = TraceContext.current();
+			traceId = (ctx != null) ? ctx.getTraceId() : TraceContext.newTraceId();
+			parentId = (ctx != null) ? ctx.getSpanId() : null;
+		}
+		Span span = new Span(this, name, traceId, TraceContext.newSpanId(), parentId, parent);
+		current.set(span);
+		return span;
+	}
+
+	void finish(Span span) {
+		// Restore parent if the span was the active one
+		if (current.get() == span) {
+			if (span.getPrevious() != null) {
+				current.set(span.getPrevious());
+			} else {
+				current.remove();
+			}
+		}
+		exporter.export(span);
+	}
+
+	public boolean isEnabled() {
+		return exporter != null;
+	}
+
+	public void close() {
+		if (exporter != null) {
+			exporter.close();
+		}
+	}
+
+}
@@ -0,0 +1,48 @@
+package de.tum.flexsmc.smc.utils;
+
+import de.tum.flexsmc.smc.rpc.Option;
+import de.tum.flexsmc.smc.rpc.SMCTask;
+
+/**
+ * Typed access to the key-value options transmitted with a SMCTask. Missing
+ * options fall back to the given default value.
+ */
+public class TaskOptions {
+
+	public static String getString(SMCTask task, String key, String defaultValue) {
+		Option opt = task.getOptionsMap().get(key);
+		if (opt == null) {
+			return defaultValue;
+		}
+
+		switch (opt.getOptValueCase()) {
+		case STR:
+			return opt.getStr();
+		case DEC:
+			return Integer.toString(opt.getDec());
+		default:
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * @throws NumberFormatException
+	 *             if the option is set as string and cannot be parsed
+	 */
+	public static int getInt(SMCTask task, String key, int defaultValue) throws NumberFormatException {
+		Option opt = task.getOptionsMap().get(key);
+		if (opt == null) {
+			return defaultValue;
+		}
+
+		switch (opt.getOptValueCase()) {
+		case DEC:
+			return opt.getDec();
+		case STR:
+			return Integer.parseInt(opt.getStr().trim());
+		default:
+			return defaultValue;
+		}
+	}
+
+}